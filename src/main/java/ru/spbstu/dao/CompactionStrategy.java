@@ -0,0 +1,102 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.table.SSTable;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Decides which SSTables are merged together.
+ * Implementations are called under the compaction lock of the storage, one task at a time.
+ */
+interface CompactionStrategy {
+
+    /**
+     * Returns the compaction which is due for the given tables, null if there is nothing to compact.
+     */
+    @Nullable
+    CompactionTask pick(@NotNull TableSet snapshot);
+
+    /**
+     * Returns the compaction of all SSTables, null if there are no SSTables.
+     */
+    @Nullable
+    CompactionTask major(@NotNull TableSet snapshot);
+
+    static CompactionStrategy of(@NotNull final DAOConfig config) {
+        switch (config.compactionStyle) {
+            case LEVELED:
+                return new LeveledCompaction(config);
+            case SIZE_TIERED:
+                return new SizeTieredCompaction(config);
+            default:
+                throw new IllegalArgumentException("Unknown compaction style: " + config.compactionStyle);
+        }
+    }
+
+    /**
+     * Tombstones can be dropped if they shadow nothing outside of the inputs. Tables which are flushed
+     * concurrently with compactions may be older than the tables of deeper levels, so the rest of
+     * overlapping tables has to be newer than the inputs rather than just be on a shallower level.
+     * The memory table accepting writes has to be newer as well: a writer which entered the previous
+     * memory table before it was switched may take a later timestamp than a writer of the current one.
+     */
+    static boolean canDropTombstones(@NotNull final TableSet snapshot,
+                                     @NotNull final NavigableMap<Integer, SSTable> inputs) {
+        if (!snapshot.memToFlush.isEmpty()) {
+            return false;
+        }
+        long maxTimestamp = Long.MIN_VALUE;
+        for (final SSTable ssTable : inputs.values()) {
+            maxTimestamp = Math.max(maxTimestamp, ssTable.getMaxTimestamp());
+        }
+        if (snapshot.memTable.getMinTimestamp() <= maxTimestamp) {
+            return false;
+        }
+        final NavigableMap<Integer, SSTable> overlapping
+                = overlapping(snapshot.ssTables, smallestKey(inputs), largestKey(inputs));
+        for (final Map.Entry<Integer, SSTable> entry : overlapping.entrySet()) {
+            if (!inputs.containsKey(entry.getKey()) && entry.getValue().getMinTimestamp() <= maxTimestamp) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static NavigableMap<Integer, SSTable> overlapping(@NotNull final NavigableMap<Integer, SSTable> tables,
+                                                     @NotNull final ByteBuffer smallest,
+                                                     @NotNull final ByteBuffer largest) {
+        final NavigableMap<Integer, SSTable> result = new TreeMap<>();
+        tables.forEach((generation, ssTable) -> {
+            if (ssTable.getFirstKey().compareTo(largest) <= 0 && ssTable.getLastKey().compareTo(smallest) >= 0) {
+                result.put(generation, ssTable);
+            }
+        });
+        return result;
+    }
+
+    static ByteBuffer smallestKey(@NotNull final NavigableMap<Integer, SSTable> tables) {
+        ByteBuffer smallest = null;
+        for (final SSTable ssTable : tables.values()) {
+            if (smallest == null || ssTable.getFirstKey().compareTo(smallest) < 0) {
+                smallest = ssTable.getFirstKey();
+            }
+        }
+        return smallest;
+    }
+
+    static ByteBuffer largestKey(@NotNull final NavigableMap<Integer, SSTable> tables) {
+        ByteBuffer largest = null;
+        for (final SSTable ssTable : tables.values()) {
+            if (largest == null || ssTable.getLastKey().compareTo(largest) > 0) {
+                largest = ssTable.getLastKey();
+            }
+        }
+        return largest;
+    }
+
+}
@@ -0,0 +1,20 @@
+package ru.spbstu.dao;
+
+/**
+ * Defines how SSTables are picked for background compactions.
+ */
+public enum CompactionStyle {
+
+    /**
+     * Tables are kept in levels of disjoint key ranges, every level is larger than the previous one.
+     * Bounds the amount of tables a key can be found in at the cost of rewriting data more often.
+     */
+    LEVELED,
+
+    /**
+     * Runs of tables of similar sizes are merged into a single larger table.
+     * Rewrites data less often at the cost of more tables to read and more space held by old versions.
+     */
+    SIZE_TIERED
+
+}
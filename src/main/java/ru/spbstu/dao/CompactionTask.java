@@ -0,0 +1,34 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import ru.spbstu.dao.table.SSTable;
+
+import java.util.NavigableMap;
+
+/**
+ * SSTables to merge and where to put the result.
+ */
+final class CompactionTask {
+
+    final NavigableMap<Integer, SSTable> inputs;
+    final int outputLevel;
+    final long maxOutputSize;
+    final boolean dropTombstones;
+
+    /**
+     * @param inputs         - SSTables to merge by their generations
+     * @param outputLevel    - level of the produced SSTables
+     * @param maxOutputSize  - size of data after which the next output SSTable is started
+     * @param dropTombstones - true if no older data shadowed by the tombstones of the inputs can exist
+     */
+    CompactionTask(@NotNull final NavigableMap<Integer, SSTable> inputs,
+                   final int outputLevel,
+                   final long maxOutputSize,
+                   final boolean dropTombstones) {
+        this.inputs = inputs;
+        this.outputLevel = outputLevel;
+        this.maxOutputSize = maxOutputSize;
+        this.dropTombstones = dropTombstones;
+    }
+
+}
@@ -7,7 +7,13 @@ import ru.spbstu.Record;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 public interface DAO extends Closeable {
@@ -33,6 +39,18 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Returns records with keys in [from, to) in descending order of keys, starting from the end of the range.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(@NotNull ByteBuffer from,
+                                             @Nullable ByteBuffer to) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        range(from, to).forEachRemaining(records::add);
+        Collections.reverse(records);
+        return records.iterator();
+    }
+
     @NotNull
     default Value getValue(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
         final Iterator<Cell> iter = cellIterator(key);
@@ -43,6 +61,22 @@ public interface DAO extends Closeable {
         return iter.next().getValue();
     }
 
+    /**
+     * Returns values of the keys including tombstones, keys without values are absent in the result.
+     */
+    @NotNull
+    default Map<ByteBuffer, Value> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, Value> result = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            try {
+                result.put(key, getValue(key));
+            } catch (NoSuchElementException e) {
+                // absent keys are skipped
+            }
+        }
+        return result;
+    }
+
     @NotNull
     default ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
         final Iterator<Record> iter = iterator(key);
@@ -70,6 +104,19 @@ public interface DAO extends Closeable {
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Removes values of all keys in [from, to) with a single operation.
+     */
+    void removeRange(
+            @NotNull ByteBuffer from,
+            @NotNull ByteBuffer to) throws IOException;
+
+    /**
+     * Applies all mutations of the batch with a single timestamp,
+     * readers observe either all of them or none, after a crash either all of them are recovered or none.
+     */
+    void write(@NotNull WriteBatch batch) throws IOException;
+
     /**
      * Perform compaction
      */
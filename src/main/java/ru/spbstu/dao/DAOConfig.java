@@ -0,0 +1,210 @@
+package ru.spbstu.dao;
+
+import ru.spbstu.dao.log.SyncPolicy;
+import ru.spbstu.dao.table.BlockCache;
+import ru.spbstu.dao.table.Compression;
+import ru.spbstu.dao.table.TableCache;
+
+/**
+ * Tunables of {@link LsmDAOImpl}.
+ */
+public class DAOConfig {
+
+    /**
+     * Size of the memory table in bytes after which it is flushed on disk.
+     */
+    public long bytesToFlush = DAOFactory.MAX_HEAP / 32;
+
+    /**
+     * Keep memory tables in off-heap arena chunks instead of heap objects,
+     * so the flush threshold is not bound by the heap size.
+     */
+    public boolean offHeapMemTable;
+
+    /**
+     * Size of the arena chunks of off-heap memory tables in bytes.
+     */
+    public int arenaChunkSize = 4 * 1024 * 1024;
+
+    /**
+     * Amount of threads which flush memory tables on disk.
+     */
+    public int flushQueueSize = 4;
+
+    /**
+     * When writes appended to the commit log are forced to disk.
+     */
+    public SyncPolicy syncPolicy = SyncPolicy.PERIODIC;
+
+    /**
+     * Period of commit log syncs if {@link SyncPolicy#PERIODIC} is used.
+     */
+    public long syncPeriodMillis = 10;
+
+    /**
+     * False positive probability of the bloom filters written into SSTables.
+     */
+    public double bloomFilterFpp = 0.01;
+
+    /**
+     * Size of SSTable data blocks in bytes.
+     */
+    public int blockSize = 4 * 1024;
+
+    /**
+     * Amount of cells between restart points of a data block. Keys are stored as suffixes
+     * after the prefix shared with the previous key, a restart point stores the key in full.
+     */
+    public int blockRestartInterval = 16;
+
+    /**
+     * Codec of SSTable data blocks. Tables keep the codec they were written with,
+     * so changing it affects new tables only and compaction re-encodes the old ones.
+     */
+    public Compression compression = Compression.NONE;
+
+    /**
+     * Verify CRC32C of SSTable data blocks whenever they are read from disk or from file mappings.
+     */
+    public boolean verifyChecksums = true;
+
+    /**
+     * Size of each of the two direct buffers SSTables are encoded into before they are written.
+     */
+    public int writeBufferSize = 1024 * 1024;
+
+    /**
+     * Cache of SSTable data blocks, shared by all storages of the process by default.
+     */
+    public BlockCache blockCache = DAOFactory.BLOCK_CACHE;
+
+    /**
+     * Bounds the amount of SSTables with open files and loaded indexes, shared by all storages of the process
+     * by default, so the amount of file descriptors doesn't grow with the amount of tables.
+     */
+    public TableCache tableCache = DAOFactory.TABLE_CACHE;
+
+    /**
+     * Serve SSTable reads from file mappings relying on the OS page cache instead of the block cache.
+     */
+    public boolean mmap;
+
+    /**
+     * Maximum size of a single file mapping if {@link #mmap} is set.
+     * Files which are larger are mapped by several segments aligned to data blocks.
+     */
+    public long mmapSegmentSize = Integer.MAX_VALUE;
+
+    /**
+     * How SSTables are picked for background compactions.
+     */
+    public CompactionStyle compactionStyle = CompactionStyle.LEVELED;
+
+    /**
+     * Period of checks if background compaction is due, compactions are also checked after every flush.
+     */
+    public long compactionPeriodMillis = 1000;
+
+    /**
+     * Amount of threads merging disjoint key ranges of a single compaction.
+     */
+    public int compactionParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Amount of level 0 SSTables which triggers their compaction into level 1.
+     */
+    public int level0CompactionTrigger = 4;
+
+    /**
+     * Maximum total size of level 1 SSTables in bytes.
+     */
+    public long level1MaxBytes = 80L * 1024 * 1024;
+
+    /**
+     * Every next level may be that many times larger than the previous one.
+     */
+    public int levelSizeMultiplier = 10;
+
+    /**
+     * Amount of levels, the last one is never compacted further.
+     */
+    public int maxLevels = 7;
+
+    /**
+     * Size of SSTables written by compaction in bytes.
+     */
+    public long targetFileSize = 8L * 1024 * 1024;
+
+    /**
+     * Minimum amount of similar-sized SSTables to compact if {@link CompactionStyle#SIZE_TIERED} is used.
+     */
+    public int tieredMinThreshold = 4;
+
+    /**
+     * Maximum amount of SSTables merged by one size-tiered compaction.
+     */
+    public int tieredMaxThreshold = 32;
+
+    /**
+     * A table is similar to a bucket of tables if its size is at least that share of their average size.
+     */
+    public double tieredBucketLow = 0.5;
+
+    /**
+     * A table is similar to a bucket of tables if its size is at most that share of their average size.
+     */
+    public double tieredBucketHigh = 1.5;
+
+    /**
+     * SSTables smaller than that amount of bytes are all considered similar-sized.
+     */
+    public long tieredMinTableSize = 32L * 1024 * 1024;
+
+    /**
+     * Size of the cache of values looked up by key in bytes, the cache is disabled if it is 0.
+     * Every storage has its own cache.
+     */
+    public long rowCacheSize = DAOFactory.MAX_HEAP / 32;
+
+    /**
+     * Values of that many bytes and larger are moved into the value log when they are flushed,
+     * SSTables store pointers to them, so compaction doesn't rewrite the values. Must be positive.
+     */
+    public int valueSeparationThreshold = Integer.MAX_VALUE;
+
+    /**
+     * Size of a value log segment in bytes after which the next segment is started.
+     */
+    public long valueLogSegmentSize = 64L * 1024 * 1024;
+
+    /**
+     * A value log segment is collected once that share of its bytes is no longer referenced by SSTables.
+     */
+    public double valueLogGcRatio = 0.5;
+
+    /**
+     * Writes are delayed once memory tables waiting for flush hold that many bytes.
+     */
+    public long slowdownPendingFlushBytes = DAOFactory.MAX_HEAP / 16;
+
+    /**
+     * Writes wait once memory tables waiting for flush hold that many bytes.
+     */
+    public long stopPendingFlushBytes = DAOFactory.MAX_HEAP / 8;
+
+    /**
+     * Writes are delayed once there are that many SSTables of level 0.
+     */
+    public int slowdownLevel0Tables = 20;
+
+    /**
+     * Writes wait once there are that many SSTables of level 0.
+     */
+    public int stopLevel0Tables = 36;
+
+    /**
+     * Delay of a write right below the stop thresholds in microseconds.
+     */
+    public long maxWriteDelayMicros = 1000;
+
+}
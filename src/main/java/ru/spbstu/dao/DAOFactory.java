@@ -1,6 +1,8 @@
 package ru.spbstu.dao;
 
 import org.jetbrains.annotations.NotNull;
+import ru.spbstu.dao.table.BlockCache;
+import ru.spbstu.dao.table.TableCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -8,6 +10,8 @@ import java.io.IOException;
 public final class DAOFactory {
 
     static final long MAX_HEAP = 256 * 1024 * 1024;
+    static final BlockCache BLOCK_CACHE = new BlockCache(MAX_HEAP / 8);
+    static final TableCache TABLE_CACHE = new TableCache(1024);
 
     private DAOFactory() {
         // don't instantiate
@@ -27,7 +31,7 @@ public final class DAOFactory {
             throw new IllegalArgumentException("path is not a directory: " + data);
         }
 
-        return new LsmDAOImpl(data, (int) MAX_HEAP / 32, 4);
+        return new LsmDAOImpl(data, new DAOConfig());
     }
 
 }
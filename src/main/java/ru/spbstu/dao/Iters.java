@@ -1,10 +1,17 @@
 package ru.spbstu.dao;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 public final class Iters {
 
@@ -39,6 +46,93 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter, byKey);
     }
 
+    /**
+     * Returns elements while they match the predicate.
+     */
+    public static <E> Iterator<E> takeWhile(@NotNull final Iterator<E> iter,
+                                            @NotNull final Predicate<E> predicate) {
+        final PeekingIterator<E> peeking = Iterators.peekingIterator(iter);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return peeking.hasNext() && predicate.test(peeking.peek());
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Predicate doesn't match the next element");
+                }
+                return peeking.next();
+            }
+        };
+    }
+
+    /**
+     * Returns elements while their total weight is less than the given one,
+     * the element which exceeds the limit is still returned.
+     * The source iterator is left positioned after the last returned element.
+     */
+    public static <E> Iterator<E> limit(@NotNull final Iterator<E> iter,
+                                        @NotNull final ToLongFunction<E> weigher,
+                                        final long maxWeight) {
+        return new Iterator<>() {
+            private long weight;
+
+            @Override
+            public boolean hasNext() {
+                return weight < maxWeight && iter.hasNext();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Weight limit is reached");
+                }
+                final E next = iter.next();
+                weight += weigher.applyAsLong(next);
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Returns at most the given number of elements.
+     * The source is closed once the limit is reached if it is {@link Closeable}.
+     */
+    public static <E> Iterator<E> limit(@NotNull final Iterator<E> iter,
+                                        final long maxCount) {
+        return new Iterator<>() {
+            private long count;
+            private boolean closed;
+
+            @Override
+            public boolean hasNext() {
+                if (count < maxCount) {
+                    return iter.hasNext();
+                }
+                if (!closed && iter instanceof Closeable) {
+                    closed = true;
+                    try {
+                        ((Closeable) iter).close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Count limit is reached");
+                }
+                count++;
+                return iter.next();
+            }
+        };
+    }
+
     private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
 
         private final Iterator<E> iter;
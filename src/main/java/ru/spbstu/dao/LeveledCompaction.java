@@ -0,0 +1,131 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.table.SSTable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Picks compactions which keep SSTables organized in levels.
+ * Level 0 holds flushed tables which may overlap each other. Tables of every next level hold
+ * disjoint key ranges and the level may be {@link DAOConfig#levelSizeMultiplier} times larger
+ * than the previous one. A compaction merges one level 0 run or one table of a deeper level
+ * with the overlapping tables of the next level.
+ */
+@ThreadSafe
+final class LeveledCompaction implements CompactionStrategy {
+
+    @NotNull
+    private final DAOConfig config;
+    private final ByteBuffer[] compactPointers;
+
+    LeveledCompaction(@NotNull final DAOConfig config) {
+        this.config = config;
+        this.compactPointers = new ByteBuffer[config.maxLevels];
+    }
+
+    /**
+     * Returns the compaction of the level which exceeds its size limit the most,
+     * null if all levels fit their limits.
+     */
+    @Nullable
+    @Override
+    public synchronized CompactionTask pick(@NotNull final TableSet snapshot) {
+        final List<NavigableMap<Integer, SSTable>> levels = levels(snapshot);
+        int level = -1;
+        double bestScore = 1.0;
+        for (int i = 0; i < config.maxLevels - 1; i++) {
+            final double score = score(levels.get(i), i);
+            if (score >= bestScore) {
+                bestScore = score;
+                level = i;
+            }
+        }
+        if (level < 0) {
+            return null;
+        }
+
+        final NavigableMap<Integer, SSTable> inputs = new TreeMap<>();
+        if (level == 0) {
+            inputs.putAll(levels.get(0));
+        } else {
+            final Map.Entry<Integer, SSTable> next = nextToCompact(levels.get(level), compactPointers[level]);
+            inputs.put(next.getKey(), next.getValue());
+            compactPointers[level] = next.getValue().getLastKey();
+        }
+        inputs.putAll(CompactionStrategy.overlapping(levels.get(level + 1),
+                CompactionStrategy.smallestKey(inputs), CompactionStrategy.largestKey(inputs)));
+
+        return new CompactionTask(inputs, level + 1, config.targetFileSize,
+                CompactionStrategy.canDropTombstones(snapshot, inputs));
+    }
+
+    /**
+     * Returns the compaction of all SSTables into the deepest non-empty level.
+     */
+    @Nullable
+    @Override
+    public CompactionTask major(@NotNull final TableSet snapshot) {
+        if (snapshot.ssTables.isEmpty()) {
+            return null;
+        }
+        int outputLevel = 1;
+        for (final SSTable ssTable : snapshot.ssTables.values()) {
+            outputLevel = Math.max(outputLevel, levelOf(ssTable));
+        }
+        return new CompactionTask(snapshot.ssTables, outputLevel, config.targetFileSize,
+                CompactionStrategy.canDropTombstones(snapshot, snapshot.ssTables));
+    }
+
+    private List<NavigableMap<Integer, SSTable>> levels(@NotNull final TableSet snapshot) {
+        final List<NavigableMap<Integer, SSTable>> levels = new ArrayList<>(config.maxLevels);
+        for (int i = 0; i < config.maxLevels; i++) {
+            levels.add(new TreeMap<>());
+        }
+        snapshot.ssTables.forEach((generation, ssTable) -> levels.get(levelOf(ssTable)).put(generation, ssTable));
+        return levels;
+    }
+
+    private int levelOf(@NotNull final SSTable ssTable) {
+        return Math.min(ssTable.getLevel(), config.maxLevels - 1);
+    }
+
+    private double score(@NotNull final NavigableMap<Integer, SSTable> level, final int index) {
+        if (index == 0) {
+            return (double) level.size() / config.level0CompactionTrigger;
+        }
+        long bytes = 0;
+        for (final SSTable ssTable : level.values()) {
+            bytes += ssTable.sizeInBytes();
+        }
+        return bytes / (config.level1MaxBytes * Math.pow(config.levelSizeMultiplier, index - 1));
+    }
+
+    /**
+     * Tables of a level are compacted round-robin by their key ranges.
+     */
+    private static Map.Entry<Integer, SSTable> nextToCompact(@NotNull final NavigableMap<Integer, SSTable> level,
+                                                            @Nullable final ByteBuffer compactPointer) {
+        Map.Entry<Integer, SSTable> next = null;
+        Map.Entry<Integer, SSTable> first = null;
+        for (final Map.Entry<Integer, SSTable> entry : level.entrySet()) {
+            final ByteBuffer firstKey = entry.getValue().getFirstKey();
+            if (first == null || firstKey.compareTo(first.getValue().getFirstKey()) < 0) {
+                first = entry;
+            }
+            if (compactPointer != null && firstKey.compareTo(compactPointer) > 0
+                    && (next == null || firstKey.compareTo(next.getValue().getFirstKey()) < 0)) {
+                next = entry;
+            }
+        }
+        return next == null ? first : next;
+    }
+
+}
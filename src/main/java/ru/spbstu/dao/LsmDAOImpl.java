@@ -1,12 +1,25 @@
 package ru.spbstu.dao;
 
 import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.spbstu.Record;
+import ru.spbstu.dao.log.CommitLog;
+import ru.spbstu.dao.log.Directories;
+import ru.spbstu.dao.log.Manifest;
+import ru.spbstu.dao.log.SyncPolicy;
+import ru.spbstu.dao.table.ArenaMemoryTable;
+import ru.spbstu.dao.table.MemoryTable;
+import ru.spbstu.dao.table.MutableTable;
 import ru.spbstu.dao.table.SSTable;
 import ru.spbstu.dao.table.Table;
+import ru.spbstu.dao.table.TableCache;
+import ru.spbstu.dao.table.TableMeta;
+import ru.spbstu.dao.vlog.ValueLog;
+import ru.spbstu.dao.vlog.ValuePointer;
 
 import javax.annotation.Nonnull;
 import java.io.File;
@@ -16,10 +29,26 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LsmDAOImpl implements DAO {
@@ -28,28 +57,168 @@ public class LsmDAOImpl implements DAO {
 
     private static final String SSTable_FILE_POSTFIX = ".dat";
     private static final String SSTable_TEMPORARY_FILE_POSTFIX = ".tmp";
+    private static final String COMMIT_LOG_FILE_POSTFIX = ".wal";
 
     private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
     @Nonnull
     private final File storage;
-    private final int bytesToFlush;
-
-    private TableSet tableSet;
+    @NotNull
+    private final DAOConfig config;
+    private final long bytesToFlush;
+    @NotNull
+    private final CompactionStrategy compaction;
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final AtomicLong lastTimestamp = new AtomicLong();
+    private final PendingBatches pendingBatches = new PendingBatches(lastTimestamp);
+    private final AtomicInteger obsoleteTables = new AtomicInteger();
+    private final AtomicLong obsoleteBytes = new AtomicLong();
+    @NotNull
+    private final ValueLog valueLog;
+    @NotNull
+    private final RowCache rowCache;
+    @NotNull
+    private final Manifest manifest;
+    /**
+     * Flushes write values into the value log under the read lock and collection picks a segment
+     * under the write lock, so a segment is never collected while pointers into it are not yet referenced.
+     */
+    private final ReadWriteLock valueLogLock = new ReentrantReadWriteLock();
 
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
-    private final ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
+    /**
+     * Reads and writes take no locks, they use the current set of tables as is.
+     * Structural changes replace the set under the swap lock.
+     */
+    private volatile TableSet tableSet;
+    private final Object swapLock = new Object();
+    @NotNull
+    private final WriteController writeController;
+    private int commitLogSequence;
 
     @NotNull
     private final ExecutorService service;
+    private final ScheduledExecutorService commitLogSyncService;
+    @NotNull
+    private final ScheduledExecutorService compactionService;
+    @NotNull
+    private final ForkJoinPool compactionPool;
 
+    /**
+     * LSM storage which recovers its state from the given directory.
+     * Writes which were not flushed before the previous shutdown are replayed from the commit logs
+     * and flushed on disk before the storage is returned.
+     *
+     * @param storage - directory with the storage files
+     * @param config  - storage tunables
+     */
     public LsmDAOImpl(@NotNull final File storage,
-                      final int bytesToFlush,
-                      final int flushQueueSize) throws IOException {
+                      @NotNull final DAOConfig config) throws IOException {
+        if (config.valueSeparationThreshold <= 0) {
+            // empty values would be moved into the value log otherwise
+            throw new IllegalArgumentException("Value separation threshold must be positive: "
+                    + config.valueSeparationThreshold);
+        }
         this.storage = storage;
-        this.bytesToFlush = bytesToFlush;
-        final NavigableMap<Integer, Table> ssTables = new TreeMap<>();
+        this.config = config;
+        this.bytesToFlush = config.bytesToFlush;
+        this.compaction = CompactionStrategy.of(config);
+        this.valueLog = new ValueLog(storage, config.valueLogSegmentSize);
+        this.rowCache = new RowCache(config.rowCacheSize);
+        final NavigableMap<Integer, SSTable> ssTables = Manifest.exists(storage)
+                ? openRecordedSSTables()
+                : openListedSSTables();
+        final Map.Entry<Integer, SSTable> genEntry = ssTables.entrySet()
+                .stream()
+                .max(Comparator.comparing(Map.Entry::getKey))
+                .orElse(null);
+        int generation = 0;
+        if (genEntry != null) {
+            generation = genEntry.getKey();
+        }
+
+        final MutableTable recovered = newMemTable();
+        final List<File> commitLogs = replayCommitLogs(recovered);
+        if (!isEmpty(recovered)) {
+            generation++;
+            logger.debug("Flushing {} byte(s) recovered from commit logs to {}", recovered.getBytes(), generation);
+            ssTables.put(generation, openSSTable(serialize(generation,
+                    recovered.iterator(EMPTY_BUFFER), recovered::getRangeTombstones, 0)));
+        }
+        this.manifest = Manifest.create(storage, metas(ssTables));
+        // recovered writes are durable once the manifest records their table
+        for (final File log : commitLogs) {
+            Files.delete(log.toPath());
+        }
+        valueLog.deleteUnreferenced();
+
+        ssTables.values().forEach(ssTable -> lastTimestamp.accumulateAndGet(ssTable.getMaxTimestamp(), Math::max));
+        this.tableSet = TableSet.provideTableSet(newMemTable(), openCommitLog(), ssTables, generation + 1);
+        this.writeController = new WriteController(config);
+        writeController.update(tableSet);
+        this.service = Executors.newFixedThreadPool(config.flushQueueSize);
+        if (config.syncPolicy == SyncPolicy.PERIODIC) {
+            this.commitLogSyncService = Executors.newSingleThreadScheduledExecutor();
+            commitLogSyncService.scheduleWithFixedDelay(
+                    this::syncCommitLog, config.syncPeriodMillis, config.syncPeriodMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.commitLogSyncService = null;
+        }
+        this.compactionPool = new ForkJoinPool(config.compactionParallelism);
+        this.compactionService = Executors.newSingleThreadScheduledExecutor();
+        compactionService.scheduleWithFixedDelay(this::compactInBackground,
+                0, config.compactionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the tables recorded in the manifest, files which are not recorded are left by a crash and deleted.
+     * Tables are not opened, their files are read by the first access through the {@link DAOConfig#tableCache}.
+     */
+    private NavigableMap<Integer, SSTable> openRecordedSSTables() throws IOException {
+        final NavigableMap<Integer, TableMeta> metas = Manifest.replay(storage);
+        deleteUnrecordedFiles(metas.keySet());
+        final NavigableMap<Integer, SSTable> ssTables = new TreeMap<>();
+        try {
+            for (final TableMeta meta : metas.values()) {
+                final File file = new File(storage, meta.getGeneration() + SSTable_FILE_POSTFIX);
+                if (file.length() != meta.getFileSize()) {
+                    throw new IOException("Size of " + file.getName() + " differs from the manifest");
+                }
+                ssTables.put(meta.getGeneration(), new SSTable(file, meta, config, valueLog));
+            }
+        } catch (IOException e) {
+            ssTables.values().forEach(SSTable::close);
+            throw e;
+        }
+        return ssTables;
+    }
+
+    private void deleteUnrecordedFiles(@NotNull final Set<Integer> generations) throws IOException {
+        try (Stream<Path> files = Files.list(storage.toPath())) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                final String fileName = file.getFileName().toString();
+                boolean isOrphan = fileName.endsWith(SSTable_TEMPORARY_FILE_POSTFIX);
+                if (fileName.endsWith(SSTable_FILE_POSTFIX)) {
+                    try {
+                        final String stringGen = fileName.substring(0, fileName.indexOf(SSTable_FILE_POSTFIX));
+                        isOrphan = !generations.contains(Integer.parseInt(stringGen));
+                    } catch (NumberFormatException e) {
+                        logger.info("Unexpected name of SSTable file: " + fileName, e);
+                    }
+                }
+                if (isOrphan) {
+                    logger.info("Deleting {} which is not recorded in the manifest", fileName);
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens all tables of the storage directory, storages written before the manifest was introduced have no one.
+     */
+    private NavigableMap<Integer, SSTable> openListedSSTables() throws IOException {
+        final NavigableMap<Integer, SSTable> ssTables = new TreeMap<>();
         try (Stream<Path> files = Files.list(storage.toPath())) {
             files.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(SSTable_FILE_POSTFIX))
                     .forEach(file -> {
@@ -57,7 +226,7 @@ public class LsmDAOImpl implements DAO {
                         try {
                             final String stringGen = fileName.substring(0, fileName.indexOf(SSTable_FILE_POSTFIX));
                             final int gen = Integer.parseInt(stringGen);
-                            ssTables.put(gen, new SSTable(file.toFile()));
+                            ssTables.put(gen, openSSTable(file.toFile()));
                         } catch (IOException e) {
                             logger.warn("smth went wrong while SSTables was created");
                         } catch (NumberFormatException e) {
@@ -65,158 +234,815 @@ public class LsmDAOImpl implements DAO {
                         }
                     });
         }
-        final Map.Entry<Integer, Table> genEntry = ssTables.entrySet()
-                .stream()
-                .max(Comparator.comparing(Map.Entry::getKey))
-                .orElse(null);
-        int generation = 0;
-        if (genEntry != null) {
-            generation = genEntry.getKey();
+        return ssTables;
+    }
+
+    private static List<TableMeta> metas(@NotNull final Map<Integer, SSTable> ssTables) {
+        final List<TableMeta> metas = new ArrayList<>(ssTables.size());
+        ssTables.forEach((generation, ssTable) -> metas.add(TableMeta.of(generation, ssTable)));
+        return metas;
+    }
+
+    private List<File> replayCommitLogs(@NotNull final MutableTable recovered) throws IOException {
+        final NavigableMap<Integer, File> logs = new TreeMap<>();
+        try (Stream<Path> files = Files.list(storage.toPath())) {
+            files.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(COMMIT_LOG_FILE_POSTFIX))
+                    .forEach(file -> {
+                        final String fileName = file.getFileName().toString();
+                        try {
+                            final String stringSeq = fileName.substring(0, fileName.indexOf(COMMIT_LOG_FILE_POSTFIX));
+                            logs.put(Integer.parseInt(stringSeq), file.toFile());
+                        } catch (NumberFormatException e) {
+                            logger.info("Unexpected name of commit log file: " + fileName, e);
+                        }
+                    });
+        }
+        for (final File log : logs.values()) {
+            logger.debug("Replaying commit log {}", log.getName());
+            CommitLog.replay(log, recovered::put, recovered::removeRange);
         }
-        this.tableSet = TableSet.provideTableSet(ssTables, generation + 1);
-        this.service = Executors.newFixedThreadPool(flushQueueSize);
+        if (!logs.isEmpty()) {
+            commitLogSequence = logs.lastKey() + 1;
+        }
+        return new ArrayList<>(logs.values());
     }
 
     @NotNull
     @Override
-    public Iterator<Record> iterator(@NotNull ByteBuffer from) {
-        final Iterator<Cell> freshElements = cellIterator(from);
-        final Iterator<Cell> aliveElements = Iterators.filter(freshElements, el -> !el.getValue().isTombstone());
-        return Iterators.transform(aliveElements, el -> Record.of(el.getKey(), el.getValue().getData()));
+    public Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException {
+        return range(from, null);
     }
 
+    /**
+     * The iterator holds the tables it reads until it reaches the end of the range or is closed.
+     */
     @NotNull
     @Override
-    public Iterator<Cell> cellIterator(@NotNull ByteBuffer from) {
-        final TableSet snapshot = getSnapshot();
-        final List<Iterator<Cell>> iters = new ArrayList<>(snapshot.ssTables.size() + snapshot.memToFlush.size() + 2);
-        iters.add(snapshot.memTable.iterator(from));
-        snapshot.memToFlush.forEach(mem -> iters.add(mem.iterator(from)));
-        return freshCellIterator(from, iters, snapshot);
+    public Iterator<Record> range(@NotNull final ByteBuffer from,
+                                  @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+        return cellIterator(from, to, true, false, LsmDAOImpl::toRecord);
     }
 
+    /**
+     * Tables are read backwards from the end of the range, so reading the last N records costs O(N).
+     * The iterator holds the tables it reads until it reaches the start of the range or is closed.
+     */
+    @NotNull
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
-        execute(() -> tableSet.memTable.upsert(key, value));
+    public Iterator<Record> descendingRange(@NotNull final ByteBuffer from,
+                                            @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && from.compareTo(to) >= 0) {
+            return Iters.empty();
+        }
+        return cellIterator(from, to, true, true, LsmDAOImpl::toRecord);
     }
 
+    @NotNull
     @Override
-    public void remove(@NotNull final ByteBuffer key) {
-        execute(() -> tableSet.memTable.remove(key));
+    public Iterator<Cell> cellIterator(@NotNull ByteBuffer from) throws IOException {
+        return cellIterator(from, null, false, false, Function.identity());
+    }
+
+    private <E> Iterator<E> cellIterator(@NotNull final ByteBuffer from,
+                                         @Nullable final ByteBuffer to,
+                                         final boolean skipTombstones,
+                                         final boolean descending,
+                                         @NotNull final Function<Cell, E> transform) throws IOException {
+        final TableSet snapshot = acquireSnapshot();
+        try {
+            final LongPredicate visible = pendingBatches.visibility();
+            final List<Table> tables = new ArrayList<>(snapshot.ssTables.size() + snapshot.memToFlush.size() + 1);
+            tables.add(snapshot.memTable.view(visible));
+            for (final MutableTable memoryTable : snapshot.memToFlush) {
+                tables.add(memoryTable.view(visible));
+            }
+            tables.addAll(snapshot.ssTables.descendingMap().values());
+            final List<Iterator<Cell>> iters = new ArrayList<>(tables.size());
+            final List<RangeTombstones> rangeTombstones = new ArrayList<>(tables.size());
+            for (final Table table : tables) {
+                iters.add(descending ? table.descendingIterator(to) : table.iterator(from));
+                rangeTombstones.add(table.getRangeTombstones());
+            }
+            // covered cells are returned as tombstones unless tombstones are skipped anyway
+            final Iterator<Cell> freshElements = new MergeIterator(iters,
+                    RangeTombstones.merge(rangeTombstones), skipTombstones, skipTombstones, descending);
+            final Iterator<Cell> boundedElements;
+            if (descending) {
+                boundedElements = Iters.takeWhile(freshElements, el -> el.getKey().compareTo(from) >= 0);
+            } else {
+                boundedElements = to == null
+                        ? freshElements
+                        : Iters.takeWhile(freshElements, el -> el.getKey().compareTo(to) < 0);
+            }
+            return new PinnedIterator<>(Iterators.transform(boundedElements, transform::apply), snapshot);
+        } catch (IOException | RuntimeException e) {
+            // the iterator holding the snapshot doesn't exist yet
+            snapshot.release();
+            throw e;
+        }
     }
 
+    /**
+     * Keys of memory tables are returned as views like values are, so a caller reading them doesn't move them.
+     */
+    private static Record toRecord(@NotNull final Cell cell) {
+        return Record.of(cell.getKey().asReadOnlyBuffer(), cell.getValue().getData());
+    }
+
+    /**
+     * Looks the key up in the tables from the newest to the oldest one.
+     * An SSTable is skipped if all of its cells are older than the value which is already found,
+     * so usually the lookup stops at the first table containing the key.
+     * Range tombstones of a table count as a tombstone of the key in that table.
+     */
+    @NotNull
     @Override
-    public synchronized void compact() throws IOException {
-        final boolean isEmptyListOfFiles;
-        readLock.lock();
+    public Value getValue(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        if (!rowCache.isEnabled()) {
+            return readValue(key);
+        }
+        final Value cached = rowCache.get(key);
+        if (cached == RowCache.ABSENT) {
+            throw new NoSuchElementException("Not found");
+        }
+        if (cached != null) {
+            return cached;
+        }
+        final long stamp = rowCache.stamp(key);
+        final Value value;
         try {
-            isEmptyListOfFiles = tableSet.ssTables.isEmpty();
+            value = readValue(key);
+        } catch (NoSuchElementException e) {
+            rowCache.put(key, stamp, null);
+            throw e;
+        }
+        rowCache.put(key, stamp, value);
+        return value;
+    }
+
+    private Value readValue(@NotNull final ByteBuffer key) throws IOException {
+        final TableSet snapshot = acquireSnapshot();
+        try {
+            // the value log segment may be collected once the snapshot is released
+            return getValue(snapshot, key).resolved();
         } finally {
-            readLock.unlock();
+            snapshot.release();
         }
-        if (isEmptyListOfFiles) {
-            return;
+    }
+
+    /**
+     * Memory tables are all looked up, since a writer which entered the flushed table before the switch
+     * may take a later timestamp than a writer of the current table. SSTables are skipped once they hold
+     * nothing fresher than the value found.
+     */
+    private static Value getValue(@NotNull final TableSet snapshot,
+                                  @NotNull final ByteBuffer key) throws IOException {
+        Value freshest = lookup(snapshot.memTable, key);
+        for (final MutableTable memoryTable : snapshot.memToFlush) {
+            freshest = fresher(freshest, lookup(memoryTable, key));
         }
-        final TableSet snapshot;
-        writeLock.lock();
+        for (final SSTable ssTable : snapshot.ssTables.descendingMap().values()) {
+            if (freshest != null && ssTable.getMaxTimestamp() <= freshest.getTimestamp()) {
+                continue;
+            }
+            freshest = fresher(freshest, lookup(ssTable, key));
+        }
+        if (freshest == null) {
+            throw new NoSuchElementException("Not found");
+        }
+        return freshest;
+    }
+
+    /**
+     * Resolves all keys against the same snapshot, each table is asked once for the sorted keys
+     * which may still have a fresher value in it, so neighbouring keys share index and block lookups.
+     * Keys found in the row cache are not looked up unless their cached values are not visible to the snapshot.
+     */
+    @NotNull
+    @Override
+    public Map<ByteBuffer, Value> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<ByteBuffer> requestedKeys = new ArrayList<>(new TreeSet<>(keys));
+        // stamps are taken before the visibility, so values hiding later writes are never cached
+        final long[] requestedStamps = new long[requestedKeys.size()];
+        if (rowCache.isEnabled()) {
+            for (int i = 0; i < requestedStamps.length; i++) {
+                requestedStamps[i] = rowCache.stamp(requestedKeys.get(i));
+            }
+        }
+        final Map<ByteBuffer, Value> result = new HashMap<>();
+        final List<ByteBuffer> sortedKeys = new ArrayList<>();
+        final long[] stamps = new long[requestedKeys.size()];
+        final Value[] freshest;
+        final boolean cacheable;
+        final TableSet snapshot = acquireSnapshot();
         try {
-            snapshot = tableSet;
-            tableSet = tableSet.startCompact();
+            final PendingBatches.Visibility visible = pendingBatches.visibility();
+            cacheable = !visible.hidesPending();
+            // the cache is read after the visibility is taken, so a batch completed before is never seen in part
+            for (int i = 0; i < requestedKeys.size(); i++) {
+                final ByteBuffer key = requestedKeys.get(i);
+                final Value cached = rowCache.isEnabled() ? rowCache.get(key) : null;
+                if (cached == null || !visible.test(cached.getTimestamp())) {
+                    stamps[sortedKeys.size()] = requestedStamps[i];
+                    sortedKeys.add(key);
+                } else if (cached != RowCache.ABSENT) {
+                    result.put(key, cached);
+                }
+            }
+            freshest = new Value[sortedKeys.size()];
+            // every key is looked up in every memory table, see getValue(TableSet, ByteBuffer)
+            final int[] allPositions = pendingPositions(freshest, Long.MAX_VALUE);
+            lookupAll(snapshot.memTable.view(visible), sortedKeys, allPositions, freshest);
+            for (final MutableTable memoryTable : snapshot.memToFlush) {
+                lookupAll(memoryTable.view(visible), sortedKeys, allPositions, freshest);
+            }
+            for (final SSTable ssTable : snapshot.ssTables.descendingMap().values()) {
+                lookupAll(ssTable, sortedKeys, pendingPositions(freshest, ssTable.getMaxTimestamp()), freshest);
+            }
+            for (int i = 0; i < freshest.length; i++) {
+                if (freshest[i] != null) {
+                    freshest[i] = freshest[i].resolved();
+                }
+            }
         } finally {
-            writeLock.unlock();
+            snapshot.release();
         }
+        for (int i = 0; i < freshest.length; i++) {
+            if (freshest[i] != null) {
+                result.put(sortedKeys.get(i), freshest[i]);
+            }
+            if (rowCache.isEnabled() && cacheable) {
+                rowCache.put(sortedKeys.get(i), stamps[i], freshest[i]);
+            }
+        }
+        return result;
+    }
 
-        logger.debug("Compacting byte(s) to to {}", snapshot.generation);
+    /**
+     * Returns positions of the keys without a value or with a value older than the given timestamp.
+     */
+    private static int[] pendingPositions(@NotNull final Value[] freshest, final long maxTimestamp) {
+        final int[] positions = new int[freshest.length];
+        int count = 0;
+        for (int i = 0; i < freshest.length; i++) {
+            if (freshest[i] == null || freshest[i].getTimestamp() < maxTimestamp) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
 
-        final List<Iterator<Cell>> iters = new ArrayList<>(snapshot.ssTables.size());
-        final Iterator<Cell> freshElements = freshCellIterator(EMPTY_BUFFER, iters, snapshot);
-        final File dst = serialize(snapshot.generation, freshElements);
+    /**
+     * Updates the freshest values of the keys at the given positions with their values in the table.
+     */
+    private static void lookupAll(@NotNull final Table table,
+                                  @NotNull final List<ByteBuffer> sortedKeys,
+                                  @NotNull final int[] positions,
+                                  @NotNull final Value[] freshest) throws IOException {
+        if (positions.length == 0) {
+            return;
+        }
+        final List<ByteBuffer> keys = new ArrayList<>(positions.length);
+        for (final int position : positions) {
+            keys.add(sortedKeys.get(position));
+        }
+        final Value[] values = table.getAll(keys);
+        for (int i = 0; i < positions.length; i++) {
+            final long deletedAt = table.getDeletedAt(keys.get(i));
+            final Value value = deletedAt == Long.MIN_VALUE
+                    ? values[i]
+                    : fresher(values[i], Value.newTombstoneValue(deletedAt));
+            freshest[positions[i]] = fresher(freshest[positions[i]], value);
+        }
+    }
 
-        try (Stream<Path> files = Files.list(storage.toPath())) {
-            files.filter(f -> {
-                final String name = f.getFileName().toFile().toString();
-                final int gen = Integer.parseInt(name.substring(0, name.indexOf('.')));
-                final boolean correctPostfix = name.endsWith(SSTable_FILE_POSTFIX);
-                final boolean isNotFlushing = snapshot.ssTables.containsKey(gen);
-                return gen < snapshot.generation && correctPostfix && isNotFlushing;
-            }).forEach(f -> {
-                try {
-                    Files.delete(f);
-                } catch (IOException e) {
-                    logger.warn("Unable to delete file: " + f.getFileName().toFile().toString(), e);
-                }
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = getValue(key);
+        if (value.isTombstone()) {
+            throw new NoSuchElementException("Not found");
+        }
+        return value.getData();
+    }
+
+    /**
+     * Returns the value of the key in the table or the tombstone of the range covering the key, whichever is fresher.
+     */
+    @Nullable
+    private static Value lookup(@NotNull final Table table,
+                                @NotNull final ByteBuffer key) throws IOException {
+        final Value value = table.get(key);
+        final long deletedAt = table.getDeletedAt(key);
+        return deletedAt == Long.MIN_VALUE ? value : fresher(value, Value.newTombstoneValue(deletedAt));
+    }
+
+    private static Value fresher(final Value current, final Value candidate) {
+        if (current == null || candidate != null && candidate.getTimestamp() > current.getTimestamp()) {
+            return candidate;
+        }
+        return current;
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        final ByteBuffer data = value.duplicate();
+        put(key, timestamp -> new Value(timestamp, data));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        put(key, Value::newTombstoneValue);
+    }
+
+    /**
+     * Stores a single range tombstone, values of the range are dropped by compaction.
+     */
+    @Override
+    public void removeRange(@NotNull final ByteBuffer from, @NotNull final ByteBuffer to) throws IOException {
+        if (from.compareTo(to) >= 0) {
+            throw new IllegalArgumentException("Start of the range must be less than its end");
+        }
+        final ByteBuffer start = from.duplicate();
+        final ByteBuffer end = to.duplicate();
+        try {
+            execute(this::nextTimestamp, (commitLog, memTable, timestamp) -> {
+                final RangeTombstone tombstone = new RangeTombstone(start, end, timestamp);
+                final long position = commitLog.appendRange(tombstone);
+                memTable.removeRange(tombstone);
+                return position;
             });
+        } finally {
+            rowCache.invalidateAll();
         }
+    }
 
-        logger.debug("Compacted byte(s) to {}", snapshot.generation);
+    /**
+     * The batch shares one timestamp, one log record and one memory table.
+     * Iterators and {@link #getAll(Collection)} skip the batch until it is applied completely,
+     * so they observe all of its cells or none.
+     */
+    @Override
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // the timestamp is allocated by the writer once it enters the memory table, the batch is pending since then
+        final AtomicLong pending = new AtomicLong(Long.MIN_VALUE);
+        try {
+            execute(() -> {
+                final long timestamp = pendingBatches.begin(this::nextTimestamp);
+                pending.set(timestamp);
+                return timestamp;
+            }, (commitLog, memTable, timestamp) -> {
+                final List<Cell> cells = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    final ByteBuffer value = batch.getValue(i);
+                    cells.add(new Cell(batch.getKey(i), value == null
+                            ? Value.newTombstoneValue(timestamp)
+                            : new Value(timestamp, value)));
+                }
+                final long position = commitLog.appendAll(cells);
+                memTable.putAll(cells);
+                return position;
+            });
+        } finally {
+            // readers hiding the batch don't cache values, so the cache never mixes the batch with older values
+            for (int i = 0; i < batch.size(); i++) {
+                rowCache.invalidate(batch.getKey(i));
+            }
+            if (pending.get() != Long.MIN_VALUE) {
+                pendingBatches.end(pending.get());
+            }
+        }
+    }
 
-        writeLock.lock();
+    private void put(@NotNull final ByteBuffer key, @NotNull final LongFunction<Value> value) throws IOException {
         try {
-            tableSet = tableSet.finishCompact(snapshot.ssTables, dst, snapshot.generation);
+            execute(this::nextTimestamp, (commitLog, memTable, timestamp) -> {
+                final Value cell = value.apply(timestamp);
+                final long position = commitLog.append(key, cell);
+                memTable.put(key, cell);
+                return position;
+            });
         } finally {
-            writeLock.unlock();
+            // a value cached before the write is applied is dropped, the next lookup reads the written one
+            rowCache.invalidate(key);
         }
     }
 
+    /**
+     * Timestamps of writes are microseconds since the epoch made unique within the storage.
+     * Cells are ordered by their timestamps only, since generations of SSTables written by compaction
+     * don't reflect the age of their cells.
+     */
+    private long nextTimestamp() {
+        final long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        return lastTimestamp.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+    }
+
+    /**
+     * Merges all SSTables into the deepest level, tombstones are dropped
+     * unless memory tables are being flushed concurrently.
+     */
     @Override
-    public void close() throws IOException {
-        final boolean isReadyToFlush;
-        readLock.lock();
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            final CompactionTask task = compaction.major(getSnapshot());
+            if (task != null) {
+                compact(task);
+            }
+            while (collectValueLog()) {
+                // every segment is collected at most once
+            }
+        }
+    }
+
+    /**
+     * Requests a background compaction check without waiting for the next period.
+     */
+    private void scheduleCompaction() {
+        if (!compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
         try {
-            isReadyToFlush = tableSet.memTable.size() > 0;
+            compactionService.execute(() -> {
+                compactionScheduled.set(false);
+                compactInBackground();
+            });
+        } catch (RejectedExecutionException e) {
+            compactionScheduled.set(false);
+            logger.debug("Compaction is skipped on shutdown");
+        }
+    }
+
+    /**
+     * Runs compactions picked by the strategy until there is nothing due.
+     */
+    private void compactInBackground() {
+        try {
+            synchronized (compactionLock) {
+                CompactionTask task;
+                while (!compactionService.isShutdown() && (task = compaction.pick(getSnapshot())) != null) {
+                    compact(task);
+                }
+                while (!compactionService.isShutdown() && collectValueLog()) {
+                    // every segment is collected at most once
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Cannot compact SSTables", e);
+        }
+    }
+
+    /**
+     * Merges the inputs of the task split into disjoint key ranges which are compacted in parallel,
+     * outputs of all ranges replace the inputs at once.
+     */
+    private void compact(@NotNull final CompactionTask task) throws IOException {
+        final List<ByteBuffer> bounds = splitKeys(task);
+        final RangeTombstones rangeTombstones = RangeTombstones.merge(task.inputs.values()
+                .stream()
+                .map(SSTable::getRangeTombstones)
+                .collect(Collectors.toList()));
+        logger.debug("Compacting {} table(s) to level {} in {} range(s)",
+                task.inputs.size(), task.outputLevel, bounds.size() + 1);
+
+        final List<Callable<NavigableMap<Integer, SSTable>>> ranges = new ArrayList<>(bounds.size() + 1);
+        ByteBuffer from = EMPTY_BUFFER;
+        for (final ByteBuffer to : bounds) {
+            final ByteBuffer rangeFrom = from;
+            ranges.add(() -> compactRange(task, rangeTombstones, rangeFrom, to));
+            from = to;
+        }
+        final ByteBuffer lastFrom = from;
+        ranges.add(() -> compactRange(task, rangeTombstones, lastFrom, null));
+
+        final NavigableMap<Integer, SSTable> outputs = new TreeMap<>();
+        Exception failure = null;
+        for (final Future<NavigableMap<Integer, SSTable>> range : compactionPool.invokeAll(ranges)) {
+            try {
+                outputs.putAll(range.get());
+            } catch (ExecutionException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            discard(outputs.values());
+            throw new IOException("Cannot compact key range", failure);
+        }
+
+        // outputs are kept on failure, they may be recorded already and are deleted on opening otherwise
+        manifest.apply(task.inputs.keySet(), metas(outputs));
+        for (final SSTable ssTable : task.inputs.values()) {
+            obsoleteTables.incrementAndGet();
+            obsoleteBytes.addAndGet(ssTable.sizeInBytes());
+            ssTable.markObsolete(() -> {
+                obsoleteTables.decrementAndGet();
+                obsoleteBytes.addAndGet(-ssTable.sizeInBytes());
+            });
+        }
+        synchronized (swapLock) {
+            install(tableSet.finishCompact(task.inputs, outputs));
+        }
+
+        logger.debug("Compacted {} table(s) to {} table(s) of level {}",
+                task.inputs.size(), outputs.size(), task.outputLevel);
+    }
+
+    /**
+     * Rewrites live values of the value log segment with the most garbage into the head segment.
+     * Garbage is accounted by compaction: tables it replaces release the bytes they point to
+     * and its outputs point only to the values which survived.
+     * Pointers to the rewritten values are written into an SSTable of level 0 with the same timestamps,
+     * it shadows the old pointers and the segment is deleted once the tables pointing into it are deleted.
+     * Must be called under the compaction lock.
+     *
+     * @return true if a segment was collected
+     */
+    private boolean collectValueLog() throws IOException {
+        final int segment;
+        valueLogLock.writeLock().lock();
+        try {
+            segment = valueLog.pickForCollection(config.valueLogGcRatio);
         } finally {
-            readLock.unlock();
+            valueLogLock.writeLock().unlock();
         }
+        if (segment < 0) {
+            return false;
+        }
+        final List<Cell> relocated = new ArrayList<>();
+        final TableSet snapshot = acquireSnapshot();
+        try {
+            valueLog.scan(segment, (key, timestamp, pointer) -> {
+                final Value value;
+                try {
+                    value = getValue(snapshot, key);
+                } catch (NoSuchElementException e) {
+                    return;
+                }
+                if (value.getTimestamp() == timestamp && pointer.equals(value.getPointer())) {
+                    final ValuePointer moved = valueLog.append(key, timestamp, pointer.read());
+                    relocated.add(new Cell(key, Value.newSeparatedValue(timestamp, moved)));
+                }
+            });
+        } finally {
+            snapshot.release();
+        }
+        if (!relocated.isEmpty()) {
+            valueLog.sync();
+            relocated.sort(Comparator.comparing(Cell::getKey));
+            final int generation = reserveGeneration();
+            final SSTable ssTable = openSSTable(serialize(generation,
+                    relocated.iterator(), () -> RangeTombstones.EMPTY, 0));
+            manifest.apply(Collections.emptyList(), Collections.singletonList(TableMeta.of(generation, ssTable)));
+            synchronized (swapLock) {
+                install(tableSet.finishCompact(Collections.emptyNavigableMap(),
+                        new TreeMap<>(Collections.singletonMap(generation, ssTable))));
+            }
+        }
+        valueLog.markObsolete(segment);
+        logger.debug("Collected value log segment {}, {} value(s) are relocated", segment, relocated.size());
+        return true;
+    }
 
-        if (isReadyToFlush) {
-            flush();
+    /**
+     * Returns keys splitting the inputs into ranges of roughly the same size. First keys of data blocks
+     * sample the key distribution, so ranges hold about the same amount of blocks. The inputs are split
+     * into at most {@link DAOConfig#compactionParallelism} ranges and never into more ranges than output tables.
+     */
+    private List<ByteBuffer> splitKeys(@NotNull final CompactionTask task) throws IOException {
+        long inputSize = 0;
+        final List<ByteBuffer> samples = new ArrayList<>();
+        for (final SSTable ssTable : task.inputs.values()) {
+            inputSize += ssTable.sizeInBytes();
+            samples.addAll(ssTable.getBlockKeys());
+        }
+        // the size of outputs is unbounded (Long.MAX_VALUE) for the size-tiered compaction, the sum would overflow
+        final long outputsCount = inputSize / task.maxOutputSize + (inputSize % task.maxOutputSize == 0 ? 0 : 1);
+        final int rangesCount = (int) Math.min(config.compactionParallelism, Math.min(outputsCount, samples.size()));
+        if (rangesCount <= 1) {
+            return Collections.emptyList();
+        }
+        samples.sort(Comparator.naturalOrder());
+        final List<ByteBuffer> bounds = new ArrayList<>(rangesCount - 1);
+        for (int i = 1; i < rangesCount; i++) {
+            final ByteBuffer bound = samples.get((int) ((long) samples.size() * i / rangesCount));
+            if (bound.remaining() > 0 && (bounds.isEmpty() || bounds.get(bounds.size() - 1).compareTo(bound) < 0)) {
+                bounds.add(bound);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Writes the cells of the inputs with keys in [from, to) into SSTables of {@link CompactionTask#maxOutputSize}.
+     * Cells covered by range tombstones are dropped, every output keeps the part of the range tombstones
+     * between its first key and the first key of the next output, so outputs of a level don't overlap.
+     */
+    private NavigableMap<Integer, SSTable> compactRange(@NotNull final CompactionTask task,
+                                                        @NotNull final RangeTombstones inputRangeTombstones,
+                                                        @NotNull final ByteBuffer from,
+                                                        @Nullable final ByteBuffer to) throws IOException {
+        final Iterator<Cell> freshElements = freshCellIterator(from, new ArrayList<>(), new ArrayList<>(),
+                task.inputs, task.dropTombstones, true);
+        final PeekingIterator<Cell> elements = Iterators.peekingIterator(to == null
+                ? freshElements
+                : Iters.takeWhile(freshElements, el -> el.getKey().compareTo(to) < 0));
+        final RangeTombstones rangeTombstones = task.dropTombstones
+                ? RangeTombstones.EMPTY
+                : inputRangeTombstones.clip(from, to);
+        final NavigableMap<Integer, SSTable> outputs = new TreeMap<>();
+        try {
+            ByteBuffer outputFrom = from;
+            while (elements.hasNext() || outputs.isEmpty() && !rangeTombstones.isEmpty()) {
+                final int generation = reserveGeneration();
+                final Iterator<Cell> part = Iters.limit(elements, LsmDAOImpl::sizeOf, task.maxOutputSize);
+                final ByteBuffer partFrom = outputFrom;
+                final Supplier<RangeTombstones> partRangeTombstones = () ->
+                        rangeTombstones.clip(partFrom, elements.hasNext() ? elements.peek().getKey() : to);
+                outputs.put(generation,
+                        openSSTable(serialize(generation, part, partRangeTombstones, task.outputLevel)));
+                if (elements.hasNext()) {
+                    outputFrom = elements.peek().getKey();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(outputs.values());
+            throw e;
+        }
+        return outputs;
+    }
+
+    /**
+     * Removes SSTables which were written by a failed compaction.
+     */
+    private static void discard(@NotNull final Collection<SSTable> ssTables) {
+        for (final SSTable ssTable : ssTables) {
+            ssTable.delete();
+        }
+    }
+
+    private int reserveGeneration() {
+        synchronized (swapLock) {
+            final int generation = tableSet.generation;
+            install(tableSet.reserveGeneration());
+            return generation;
         }
+    }
+
+    private static long sizeOf(@NotNull final Cell cell) {
+        final Value value = cell.getValue();
+        if (value.isSeparated()) {
+            return cell.getKey().remaining() + ValuePointer.BYTES;
+        }
+        return cell.getKey().remaining() + (value.isTombstone() ? 0 : value.getData().remaining());
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush(tableSet.memTable);
         service.shutdown();
         while (true) {
             if (service.isTerminated()) {
                 break;
             }
         }
-        readLock.lock();
+        if (commitLogSyncService != null) {
+            commitLogSyncService.shutdown();
+        }
+        compactionService.shutdown();
         try {
-            tableSet.ssTables.values().forEach(Table::close);
-        } finally {
-            readLock.unlock();
+            compactionService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction", e);
+        }
+        compactionPool.shutdown();
+        final TableSet snapshot = tableSet;
+        snapshot.commitLog.close();
+        if (isEmpty(snapshot.memTable)) {
+            snapshot.commitLog.delete();
         }
+        // tables still read by iterators are closed once the iterators release them
+        snapshot.release();
+        valueLog.close();
+        manifest.close();
+    }
+
+    /**
+     * Current throttling of writes.
+     */
+    public WriteState getWriteState() {
+        return writeController.getState();
+    }
+
+    /**
+     * Cache of values looked up by key, exposes its hit, miss and eviction counters.
+     */
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * Cache of open SSTables, exposes its hit, miss and eviction counters.
+     * It is shared with other storages unless {@link DAOConfig#tableCache} is set.
+     */
+    public TableCache getTableCache() {
+        return config.tableCache;
+    }
+
+    /**
+     * Size of the value log segments including values which are not collected yet.
+     */
+    public long getValueLogBytes() {
+        return valueLog.sizeInBytes();
+    }
+
+    /**
+     * Amount of SSTables replaced by compaction whose files are kept until readers release them.
+     */
+    public int getPinnedObsoleteTables() {
+        return obsoleteTables.get();
+    }
+
+    /**
+     * Size of SSTables replaced by compaction whose files are kept until readers release them.
+     */
+    public long getPinnedObsoleteBytes() {
+        return obsoleteBytes.get();
     }
 
     private TableSet getSnapshot() {
-        readLock.lock();
-        try {
-            return tableSet;
-        } finally {
-            readLock.unlock();
+        return tableSet;
+    }
+
+    /**
+     * Returns the current version retained by the caller, it must be released after use.
+     */
+    private TableSet acquireSnapshot() {
+        while (true) {
+            final TableSet snapshot = tableSet;
+            if (snapshot.tryRetain()) {
+                return snapshot;
+            }
         }
     }
 
-    private void flush() {
+    /**
+     * Replaces the current version, must be called under the swap lock.
+     */
+    private void install(@NotNull final TableSet next) {
+        final TableSet previous = tableSet;
+        tableSet = next;
+        writeController.update(next);
+        previous.release();
+    }
+
+    /**
+     * Switches the memory table to a new one and flushes it in background.
+     * Nothing is done if the table is empty or has already been switched by a concurrent writer.
+     */
+    private void flush(@NotNull final MutableTable memTable) throws IOException {
         final TableSet snapshot;
-        writeLock.lock();
-        try {
+        synchronized (swapLock) {
             snapshot = tableSet;
-            if (snapshot.memTable.size() == 0) {
+            if (snapshot.memTable != memTable || isEmpty(snapshot.memTable)) {
                 return;
             }
-            tableSet = tableSet.startFlushingOnDisk();
-        } finally {
-            writeLock.unlock();
+            install(snapshot.startFlushingOnDisk(newMemTable(), openCommitLog()));
         }
+        final CommitLog flushedLog = snapshot.commitLog;
         service.execute(() -> {
             try {
+                // writers which took the previous set before the switch finish their writes
+                snapshot.writers.sealAndDrain();
+                // completes commits of the writers which appended to the log before the switch
+                flushedLog.close();
                 logger.debug("Flushing {} byte(s) to {}", snapshot.memTable.getBytes(), snapshot.generation);
-                final File dst = serialize(snapshot.generation, snapshot.memTable.iterator(EMPTY_BUFFER));
-                writeLock.lock();
+                final SSTable flushed;
+                valueLogLock.readLock().lock();
                 try {
-                    tableSet = tableSet.finishFlushingOnDisk(snapshot.memTable, dst, snapshot.generation);
+                    final File dst = serialize(snapshot.generation,
+                            snapshot.memTable.iterator(EMPTY_BUFFER), snapshot.memTable::getRangeTombstones, 0);
+                    flushed = openSSTable(dst);
                 } finally {
-                    writeLock.unlock();
+                    valueLogLock.readLock().unlock();
                 }
+                manifest.apply(Collections.emptyList(),
+                        Collections.singletonList(TableMeta.of(snapshot.generation, flushed)));
+                synchronized (swapLock) {
+                    install(tableSet.finishFlushingOnDisk(snapshot.memTable, flushed, snapshot.generation));
+                }
+                flushedLog.delete();
                 logger.debug("Flushed {} bytes(s) to {}", snapshot.memTable.getBytes(), snapshot.generation);
+                scheduleCompaction();
             } catch (IOException e) {
                 logger.error("Cannot flush memory table on disk", e);
                 Runtime.getRuntime().halt(-1);
@@ -226,52 +1052,118 @@ public class LsmDAOImpl implements DAO {
 
     private Iterator<Cell> freshCellIterator(@NotNull final ByteBuffer from,
                                              @NotNull final List<Iterator<Cell>> itersList,
-                                             final TableSet snapshot) {
-        final List<Iterator<Cell>> iters = getAllCellItersList(from, itersList, snapshot);
-
-        final Iterator<Cell> mergerElements = Iterators.mergeSorted(
-                iters,
-                Cell.BY_KEY_AND_VALUE_CREATION_TIME_COMPARATOR
-        );
-
-        return Iters.collapseEquals(mergerElements, Cell::getKey);
+                                             @NotNull final List<RangeTombstones> rangeTombstones,
+                                             @NotNull final NavigableMap<Integer, SSTable> ssTables,
+                                             final boolean skipTombstones,
+                                             final boolean skipCovered) throws IOException {
+        final List<Iterator<Cell>> iters = getAllCellItersList(from, itersList, ssTables);
+        ssTables.values().forEach(ssTable -> rangeTombstones.add(ssTable.getRangeTombstones()));
+        return new MergeIterator(iters, RangeTombstones.merge(rangeTombstones), skipTombstones, skipCovered);
     }
 
+    /**
+     * A table which can't be read fails the caller, e.g. a compaction skipping it would drop its cells.
+     */
     private List<Iterator<Cell>> getAllCellItersList(@NotNull final ByteBuffer from,
                                                     @NotNull final List<Iterator<Cell>> iters,
-                                                    final TableSet snapshot) {
-        snapshot.ssTables.descendingMap().values().forEach(ssTable -> {
-            try {
-                iters.add(ssTable.iterator(from));
-            } catch (IOException e) {
-                logger.error("smth went wrong when the SSTable iterator was addede");
-            }
-        });
+                                                    @NotNull final NavigableMap<Integer, SSTable> ssTables)
+            throws IOException {
+        for (final SSTable ssTable : ssTables.descendingMap().values()) {
+            iters.add(ssTable.iterator(from));
+        }
         return iters;
     }
 
+    /**
+     * Writes the table into a temporary file and renames it once the file is durable,
+     * the rename is durable too when the method returns.
+     */
     private File serialize(final int generation,
-                           final Iterator<Cell> iterator) throws IOException {
+                           final Iterator<Cell> iterator,
+                           final Supplier<RangeTombstones> rangeTombstones,
+                           final int level) throws IOException {
         final File file = new File(storage, generation + SSTable_TEMPORARY_FILE_POSTFIX);
-        SSTable.serialize(file, iterator);
+        SSTable.serialize(file, iterator, rangeTombstones, config, valueLog, level);
         final String newFileName = generation + SSTable_FILE_POSTFIX;
         final File dst = new File(storage, newFileName);
         Files.move(file.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        // the commit log of the flushed cells is deleted afterwards, so the new name must survive a power failure
+        Directories.sync(storage);
         return dst;
     }
 
-    private void execute(final Runnable task) {
+    private SSTable openSSTable(@NotNull final File file) throws IOException {
+        return new SSTable(file, config, valueLog);
+    }
+
+    /**
+     * The timestamp of the write is taken once the writer is let through by the write controller
+     * and has entered the memory table, so a stalled writer can't put a cell older than the cells
+     * which are flushed and compacted meanwhile.
+     *
+     * @param timestamps - allocates the timestamp of the write
+     */
+    private void execute(@NotNull final LongSupplier timestamps,
+                         @NotNull final Mutation mutation) throws IOException {
+        writeController.throttle();
+        TableSet snapshot = tableSet;
+        // the gate is sealed only after the next set is published, so the retry sees it
+        while (!snapshot.writers.enter()) {
+            snapshot = tableSet;
+        }
+        final long position;
         final boolean isReadyToFlush;
-        readLock.lock();
         try {
-            task.run();
-            isReadyToFlush = tableSet.memTable.getBytes() > bytesToFlush;
+            position = mutation.apply(snapshot.commitLog, snapshot.memTable, timestamps.getAsLong());
+            isReadyToFlush = snapshot.memTable.getBytes() > bytesToFlush;
         } finally {
-            readLock.unlock();
+            snapshot.writers.exit();
         }
+        snapshot.commitLog.commit(position);
         if (isReadyToFlush) {
-            flush();
+            flush(snapshot.memTable);
+        }
+    }
+
+    private static boolean isEmpty(@NotNull final MutableTable memTable) {
+        return memTable.size() == 0 && memTable.getRangeTombstones().isEmpty();
+    }
+
+    /**
+     * The table is created before it is published, so writers entering it take later timestamps than the last one.
+     */
+    private MutableTable newMemTable() {
+        final long minTimestamp = lastTimestamp.get() + 1;
+        return config.offHeapMemTable
+                ? new ArenaMemoryTable(config.arenaChunkSize, minTimestamp)
+                : new MemoryTable(minTimestamp);
+    }
+
+    private CommitLog openCommitLog() throws IOException {
+        final File file = new File(storage, commitLogSequence++ + COMMIT_LOG_FILE_POSTFIX);
+        return new CommitLog(file, config.syncPolicy);
+    }
+
+    private void syncCommitLog() {
+        try {
+            tableSet.commitLog.sync();
+        } catch (IOException e) {
+            logger.error("Cannot sync commit log", e);
         }
     }
 
+    /**
+     * Write applied to the commit log and the memory table of the same set of tables.
+     */
+    @FunctionalInterface
+    private interface Mutation {
+
+        /**
+         * @param timestamp - timestamp of the cells of the write
+         * @return position of the record in the commit log
+         */
+        long apply(@NotNull CommitLog commitLog, @NotNull MutableTable memTable, long timestamp) throws IOException;
+
+    }
+
 }
@@ -0,0 +1,218 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import ru.spbstu.dao.vlog.ValuePointer;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges sorted iterators of cells with a tournament (loser) tree returning the freshest cell of every key.
+ * Older versions of the key are skipped in the same pass, tombstones are skipped too if requested.
+ * Cells of the sources are returned as is, the merge doesn't allocate per cell.
+ * Sources are given from the newest to the oldest one, the newer source wins if timestamps are equal.
+ * Cells older than a range tombstone covering their key are either skipped or returned as tombstones
+ * of the range, the tombstones are walked with a cursor since keys come in order.
+ * Sources may be sorted in descending order of keys instead, then the merge is descending as well.
+ */
+public final class MergeIterator implements Iterator<Cell> {
+
+    private final Iterator<Cell>[] sources;
+    private final Cell[] heads;
+    // losers[node] is the source which lost the match in the node, nodes are numbered from 1
+    private final int[] losers;
+    private final List<RangeTombstone> rangeTombstones;
+    private final boolean skipTombstones;
+    private final boolean skipCovered;
+    private final boolean descending;
+    private int rangeTombstone;
+    private int winner;
+    private Cell next;
+
+    /**
+     * @param sources        - iterators sorted by key, each key occurs at most once in a source
+     * @param skipTombstones - true to skip keys whose freshest cell is a tombstone
+     */
+    public MergeIterator(@NotNull final List<Iterator<Cell>> sources,
+                         final boolean skipTombstones) {
+        this(sources, RangeTombstones.EMPTY, skipTombstones, false);
+    }
+
+    /**
+     * @param sources         - iterators sorted by key, each key occurs at most once in a source
+     * @param rangeTombstones - range tombstones of all sources
+     * @param skipTombstones  - true to skip keys whose freshest cell is a tombstone
+     * @param skipCovered     - true to skip cells covered by range tombstones instead of returning tombstones
+     */
+    public MergeIterator(@NotNull final List<Iterator<Cell>> sources,
+                         @NotNull final RangeTombstones rangeTombstones,
+                         final boolean skipTombstones,
+                         final boolean skipCovered) {
+        this(sources, rangeTombstones, skipTombstones, skipCovered, false);
+    }
+
+    /**
+     * @param sources         - iterators sorted by key, each key occurs at most once in a source
+     * @param rangeTombstones - range tombstones of all sources
+     * @param skipTombstones  - true to skip keys whose freshest cell is a tombstone
+     * @param skipCovered     - true to skip cells covered by range tombstones instead of returning tombstones
+     * @param descending      - true if the sources are sorted in descending order of keys
+     */
+    @SuppressWarnings("unchecked")
+    public MergeIterator(@NotNull final List<Iterator<Cell>> sources,
+                         @NotNull final RangeTombstones rangeTombstones,
+                         final boolean skipTombstones,
+                         final boolean skipCovered,
+                         final boolean descending) {
+        final int size = sources.size();
+        this.sources = (Iterator<Cell>[]) sources.toArray(new Iterator<?>[0]);
+        this.heads = new Cell[size];
+        this.losers = new int[size];
+        this.rangeTombstones = rangeTombstones.asList();
+        this.skipTombstones = skipTombstones;
+        this.skipCovered = skipCovered;
+        this.descending = descending;
+        this.rangeTombstone = descending ? this.rangeTombstones.size() - 1 : 0;
+        for (int i = 0; i < size; i++) {
+            heads[i] = this.sources[i].hasNext() ? this.sources[i].next() : null;
+        }
+        if (size == 0) {
+            return;
+        }
+        final int[] winners = new int[size * 2];
+        for (int i = 0; i < size; i++) {
+            winners[size + i] = i;
+        }
+        for (int node = size - 1; node >= 1; node--) {
+            final int left = winners[node * 2];
+            final int right = winners[node * 2 + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                losers[node] = right;
+            } else {
+                winners[node] = right;
+                losers[node] = left;
+            }
+        }
+        winner = size == 1 ? 0 : winners[1];
+        next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Cell next() {
+        if (next == null) {
+            throw new NoSuchElementException("Merge has no more elements");
+        }
+        final Cell result = next;
+        next = advance();
+        return result;
+    }
+
+    private Cell advance() {
+        while (heads.length > 0 && heads[winner] != null) {
+            Cell freshest = heads[winner];
+            final ByteBuffer key = freshest.getKey();
+            pop();
+            while (heads[winner] != null && heads[winner].getKey().equals(key)) {
+                pop();
+            }
+            final long deletedAt = rangeTombstoneTimestamp(key);
+            if (deletedAt > freshest.getValue().getTimestamp()) {
+                if (skipCovered) {
+                    continue;
+                }
+                freshest = new Cell(key, Value.newTombstoneValue(deletedAt));
+            }
+            if (!skipTombstones || !freshest.getValue().isTombstone()) {
+                return freshest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the timestamp of the range tombstone covering the key, keys must be given in the order of the merge.
+     */
+    private long rangeTombstoneTimestamp(@NotNull final ByteBuffer key) {
+        if (descending) {
+            while (rangeTombstone >= 0 && rangeTombstones.get(rangeTombstone).getFrom().compareTo(key) > 0) {
+                rangeTombstone--;
+            }
+            if (rangeTombstone >= 0) {
+                final RangeTombstone tombstone = rangeTombstones.get(rangeTombstone);
+                if (tombstone.getTo().compareTo(key) > 0) {
+                    return tombstone.getTimestamp();
+                }
+            }
+            return Long.MIN_VALUE;
+        }
+        while (rangeTombstone < rangeTombstones.size()
+                && rangeTombstones.get(rangeTombstone).getTo().compareTo(key) <= 0) {
+            rangeTombstone++;
+        }
+        if (rangeTombstone < rangeTombstones.size()) {
+            final RangeTombstone tombstone = rangeTombstones.get(rangeTombstone);
+            if (tombstone.getFrom().compareTo(key) <= 0) {
+                return tombstone.getTimestamp();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Replaces the head of the winner with the next cell of its source and replays its path to the root.
+     */
+    private void pop() {
+        final int source = winner;
+        heads[source] = sources[source].hasNext() ? sources[source].next() : null;
+        int current = source;
+        for (int node = (sources.length + source) >>> 1; node >= 1; node >>>= 1) {
+            if (beats(losers[node], current)) {
+                final int loser = losers[node];
+                losers[node] = current;
+                current = loser;
+            }
+        }
+        winner = current;
+    }
+
+    /**
+     * Smaller keys win (greater ones if the merge is descending), of equal keys the fresher cell wins,
+     * of equally fresh cells the newer source wins unless both values are in the value log,
+     * then the value relocated later by the value log collection wins.
+     * Exhausted sources always lose.
+     */
+    private boolean beats(final int first, final int second) {
+        final Cell firstCell = heads[first];
+        final Cell secondCell = heads[second];
+        if (firstCell == null) {
+            return false;
+        }
+        if (secondCell == null) {
+            return true;
+        }
+        final int compareResult = firstCell.getKey().compareTo(secondCell.getKey());
+        if (compareResult != 0) {
+            return descending ? compareResult > 0 : compareResult < 0;
+        }
+        final long firstTimestamp = firstCell.getValue().getTimestamp();
+        final long secondTimestamp = secondCell.getValue().getTimestamp();
+        if (firstTimestamp != secondTimestamp) {
+            return firstTimestamp > secondTimestamp;
+        }
+        final ValuePointer firstPointer = firstCell.getValue().getPointer();
+        final ValuePointer secondPointer = secondCell.getValue().getPointer();
+        if (firstPointer != null && secondPointer != null && firstPointer.getSegment() != secondPointer.getSegment()) {
+            return firstPointer.getSegment() > secondPointer.getSegment();
+        }
+        return first < second;
+    }
+
+}
@@ -0,0 +1,110 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * Timestamps of the batches which are being applied to memory tables.
+ * A reader captures the last allocated timestamp together with the pending batches and skips the cells
+ * written after the capture or by a batch pending at the capture, so it sees every batch completely or not at all.
+ * Readers take no lock unless a batch is in progress.
+ */
+@ThreadSafe
+final class PendingBatches {
+
+    private static final long[] NONE = new long[0];
+
+    private final AtomicLong lastTimestamp;
+    /**
+     * Incremented before a batch allocates its timestamp and decremented once it is no longer pending.
+     */
+    private final AtomicInteger inProgress = new AtomicInteger();
+    @GuardedBy("this")
+    private final Set<Long> timestamps = new HashSet<>();
+
+    /**
+     * @param lastTimestamp - the last timestamp allocated by writers
+     */
+    PendingBatches(@NotNull final AtomicLong lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    /**
+     * Allocates the timestamp of a batch and registers it as pending,
+     * {@link #end(long)} must be called once the batch is applied or failed.
+     */
+    long begin(@NotNull final LongSupplier nextTimestamp) {
+        inProgress.incrementAndGet();
+        synchronized (this) {
+            final long timestamp = nextTimestamp.getAsLong();
+            timestamps.add(timestamp);
+            return timestamp;
+        }
+    }
+
+    void end(final long timestamp) {
+        synchronized (this) {
+            timestamps.remove(timestamp);
+        }
+        inProgress.decrementAndGet();
+    }
+
+    /**
+     * Returns the visibility of cells to a reader starting now.
+     */
+    @NotNull
+    Visibility visibility() {
+        final long last = lastTimestamp.get();
+        // a batch which is not counted here allocates its timestamp after the last one was read
+        if (inProgress.get() == 0) {
+            return new Visibility(last, NONE);
+        }
+        synchronized (this) {
+            return new Visibility(lastTimestamp.get(), timestamps.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    /**
+     * Accepts timestamps of the cells visible to a reader.
+     */
+    static final class Visibility implements LongPredicate {
+
+        private final long last;
+        private final long[] pending;
+
+        private Visibility(final long last,
+                           @NotNull final long[] pending) {
+            this.last = last;
+            this.pending = pending;
+        }
+
+        @Override
+        public boolean test(final long timestamp) {
+            if (timestamp > last) {
+                return false;
+            }
+            for (final long batch : pending) {
+                if (batch == timestamp) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if cells of batches being applied are hidden, values read so must not be cached.
+         */
+        boolean hidesPending() {
+            return pending.length > 0;
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+
+/**
+ * Iterator over a version of the set of tables which holds the version until the iterator is exhausted or closed.
+ * The version of an abandoned iterator is released once the iterator is garbage collected.
+ */
+final class PinnedIterator<E> implements Iterator<E>, Closeable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Iterator<E> iterator;
+    private final Cleaner.Cleanable release;
+
+    PinnedIterator(@NotNull final Iterator<E> iterator,
+                   @NotNull final TableSet version) {
+        this.iterator = iterator;
+        // the action must not refer to the iterator, otherwise it is never collected
+        this.release = CLEANER.register(this, version::release);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (iterator.hasNext()) {
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public E next() {
+        return iterator.next();
+    }
+
+    /**
+     * Releases the version, the iterator must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        release.clean();
+    }
+
+}
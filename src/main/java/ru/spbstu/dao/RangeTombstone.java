@@ -0,0 +1,48 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Deletion of all keys in [from, to) written before the timestamp.
+ */
+public final class RangeTombstone {
+
+    private final ByteBuffer from;
+    private final ByteBuffer to;
+    private final long timestamp;
+
+    /**
+     * @param from      - the first deleted key
+     * @param to        - the key after the last deleted one
+     * @param timestamp - cells which are older are deleted
+     */
+    public RangeTombstone(@NotNull final ByteBuffer from,
+                          @NotNull final ByteBuffer to,
+                          final long timestamp) {
+        this.from = from;
+        this.to = to;
+        this.timestamp = timestamp;
+    }
+
+    public ByteBuffer getFrom() {
+        return from;
+    }
+
+    public ByteBuffer getTo() {
+        return to;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns true if the tombstone deletes the cell with the given key and timestamp.
+     */
+    public boolean covers(@NotNull final ByteBuffer key, final long cellTimestamp) {
+        return cellTimestamp < timestamp && from.compareTo(key) <= 0 && to.compareTo(key) > 0;
+    }
+
+}
@@ -0,0 +1,110 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Mutable set of disjoint range tombstone fragments of a memory table.
+ * A tombstone is added by splitting only the fragments it overlaps, so adding it costs O(log(n) + k)
+ * for k overlapped fragments instead of fragmenting all the tombstones again.
+ */
+@NotThreadSafe
+public final class RangeTombstoneFragments {
+
+    // from -> fragment, fragments don't overlap and adjacent ones have different timestamps
+    private final NavigableMap<ByteBuffer, RangeTombstone> fragments = new TreeMap<>();
+
+    public void add(@NotNull final RangeTombstone tombstone) {
+        final ByteBuffer from = tombstone.getFrom();
+        final ByteBuffer to = tombstone.getTo();
+        if (from.compareTo(to) >= 0) {
+            return;
+        }
+        split(from);
+        split(to);
+
+        final NavigableMap<ByteBuffer, RangeTombstone> overlapped = fragments.subMap(from, true, to, false);
+        final List<RangeTombstone> added = new ArrayList<>(overlapped.size() * 2 + 1);
+        ByteBuffer cursor = from;
+        for (final RangeTombstone fragment : overlapped.values()) {
+            if (cursor.compareTo(fragment.getFrom()) < 0) {
+                append(added, new RangeTombstone(cursor, fragment.getFrom(), tombstone.getTimestamp()));
+            }
+            append(added, new RangeTombstone(fragment.getFrom(), fragment.getTo(),
+                    Math.max(fragment.getTimestamp(), tombstone.getTimestamp())));
+            cursor = fragment.getTo();
+        }
+        if (cursor.compareTo(to) < 0) {
+            append(added, new RangeTombstone(cursor, to, tombstone.getTimestamp()));
+        }
+        overlapped.clear();
+
+        RangeTombstone first = added.get(0);
+        final Map.Entry<ByteBuffer, RangeTombstone> previous = fragments.lowerEntry(from);
+        if (previous != null && joins(previous.getValue(), first)) {
+            first = new RangeTombstone(previous.getKey(), first.getTo(), first.getTimestamp());
+            added.set(0, first);
+        }
+        final int lastIndex = added.size() - 1;
+        final RangeTombstone last = added.get(lastIndex);
+        final RangeTombstone next = fragments.get(to);
+        if (next != null && joins(last, next)) {
+            fragments.remove(to);
+            added.set(lastIndex, new RangeTombstone(last.getFrom(), next.getTo(), next.getTimestamp()));
+        }
+        for (final RangeTombstone fragment : added) {
+            fragments.put(fragment.getFrom(), fragment);
+        }
+    }
+
+    /**
+     * Returns an immutable copy of the fragments.
+     */
+    @NotNull
+    public RangeTombstones snapshot() {
+        if (fragments.isEmpty()) {
+            return RangeTombstones.EMPTY;
+        }
+        return RangeTombstones.ofFragments(Collections.unmodifiableList(new ArrayList<>(fragments.values())));
+    }
+
+    /**
+     * Splits the fragment containing the key inside, so no fragment crosses it.
+     */
+    private void split(@NotNull final ByteBuffer key) {
+        final Map.Entry<ByteBuffer, RangeTombstone> entry = fragments.lowerEntry(key);
+        if (entry == null) {
+            return;
+        }
+        final RangeTombstone fragment = entry.getValue();
+        if (fragment.getTo().compareTo(key) > 0) {
+            fragments.put(fragment.getFrom(), new RangeTombstone(fragment.getFrom(), key, fragment.getTimestamp()));
+            fragments.put(key, new RangeTombstone(key, fragment.getTo(), fragment.getTimestamp()));
+        }
+    }
+
+    private static void append(@NotNull final List<RangeTombstone> fragments,
+                               @NotNull final RangeTombstone fragment) {
+        final int lastIndex = fragments.size() - 1;
+        if (lastIndex >= 0 && joins(fragments.get(lastIndex), fragment)) {
+            fragments.set(lastIndex, new RangeTombstone(fragments.get(lastIndex).getFrom(), fragment.getTo(),
+                    fragment.getTimestamp()));
+        } else {
+            fragments.add(fragment);
+        }
+    }
+
+    private static boolean joins(@NotNull final RangeTombstone first,
+                                 @NotNull final RangeTombstone second) {
+        return first.getTimestamp() == second.getTimestamp() && first.getTo().equals(second.getFrom());
+    }
+
+}
@@ -0,0 +1,170 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Range tombstones split into sorted disjoint fragments, every fragment keeps the newest timestamp
+ * of the tombstones covering it. So the deletion of a key is found by a binary search,
+ * whatever the amount of overlapping tombstones is.
+ */
+@Immutable
+public final class RangeTombstones {
+
+    public static final RangeTombstones EMPTY = new RangeTombstones(Collections.emptyList());
+
+    private final List<RangeTombstone> fragments;
+
+    private RangeTombstones(@NotNull final List<RangeTombstone> fragments) {
+        this.fragments = fragments;
+    }
+
+    /**
+     * Fragments the given tombstones, they may overlap each other.
+     */
+    public static RangeTombstones of(@NotNull final Collection<RangeTombstone> tombstones) {
+        if (tombstones.isEmpty()) {
+            return EMPTY;
+        }
+        // key -> tombstones starting and ending at the key
+        final TreeMap<ByteBuffer, List<RangeTombstone>> starts = new TreeMap<>();
+        final TreeMap<ByteBuffer, List<RangeTombstone>> ends = new TreeMap<>();
+        for (final RangeTombstone tombstone : tombstones) {
+            starts.computeIfAbsent(tombstone.getFrom(), k -> new ArrayList<>()).add(tombstone);
+            ends.computeIfAbsent(tombstone.getTo(), k -> new ArrayList<>()).add(tombstone);
+        }
+        final TreeMap<ByteBuffer, Boolean> bounds = new TreeMap<>();
+        starts.keySet().forEach(key -> bounds.put(key, true));
+        ends.keySet().forEach(key -> bounds.put(key, true));
+
+        // timestamp -> amount of active tombstones with the timestamp
+        final TreeMap<Long, Integer> active = new TreeMap<>();
+        final List<RangeTombstone> fragments = new ArrayList<>();
+        ByteBuffer fragmentFrom = null;
+        long fragmentTimestamp = Long.MIN_VALUE;
+        for (final ByteBuffer bound : bounds.keySet()) {
+            for (final RangeTombstone tombstone : ends.getOrDefault(bound, Collections.emptyList())) {
+                active.computeIfPresent(tombstone.getTimestamp(), (timestamp, count) -> count == 1 ? null : count - 1);
+            }
+            for (final RangeTombstone tombstone : starts.getOrDefault(bound, Collections.emptyList())) {
+                active.merge(tombstone.getTimestamp(), 1, Integer::sum);
+            }
+            final long timestamp = active.isEmpty() ? Long.MIN_VALUE : active.lastKey();
+            if (timestamp == fragmentTimestamp) {
+                continue;
+            }
+            if (fragmentFrom != null) {
+                fragments.add(new RangeTombstone(fragmentFrom, bound, fragmentTimestamp));
+            }
+            fragmentFrom = active.isEmpty() ? null : bound;
+            fragmentTimestamp = timestamp;
+        }
+        return new RangeTombstones(Collections.unmodifiableList(fragments));
+    }
+
+    /**
+     * Fragments tombstones of several sets together.
+     */
+    public static RangeTombstones merge(@NotNull final Collection<RangeTombstones> sets) {
+        RangeTombstones single = EMPTY;
+        final List<RangeTombstone> tombstones = new ArrayList<>();
+        for (final RangeTombstones set : sets) {
+            if (!set.isEmpty()) {
+                single = tombstones.isEmpty() ? set : null;
+                tombstones.addAll(set.fragments);
+            }
+        }
+        return single == null ? of(tombstones) : single;
+    }
+
+    /**
+     * Wraps fragments which are already sorted and disjoint.
+     */
+    static RangeTombstones ofFragments(@NotNull final List<RangeTombstone> fragments) {
+        return new RangeTombstones(fragments);
+    }
+
+    /**
+     * Returns the timestamp of the newest tombstone covering the key, {@link Long#MIN_VALUE} if there is none.
+     */
+    public long getTimestamp(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = fragments.size() - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final RangeTombstone fragment = fragments.get(mid);
+            if (fragment.getFrom().compareTo(key) > 0) {
+                right = mid - 1;
+            } else if (fragment.getTo().compareTo(key) <= 0) {
+                left = mid + 1;
+            } else {
+                return fragment.getTimestamp();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the fragments limited to [from, to), to is unbounded if null.
+     */
+    public RangeTombstones clip(@NotNull final ByteBuffer from,
+                                @Nullable final ByteBuffer to) {
+        if (fragments.isEmpty()) {
+            return this;
+        }
+        final List<RangeTombstone> clipped = new ArrayList<>();
+        for (final RangeTombstone fragment : fragments) {
+            final ByteBuffer fragmentFrom = max(fragment.getFrom(), from);
+            final ByteBuffer fragmentTo = to == null ? fragment.getTo() : min(fragment.getTo(), to);
+            if (fragmentFrom.compareTo(fragmentTo) < 0) {
+                clipped.add(new RangeTombstone(fragmentFrom, fragmentTo, fragment.getTimestamp()));
+            }
+        }
+        return clipped.isEmpty() ? EMPTY : new RangeTombstones(Collections.unmodifiableList(clipped));
+    }
+
+    public List<RangeTombstone> asList() {
+        return fragments;
+    }
+
+    public boolean isEmpty() {
+        return fragments.isEmpty();
+    }
+
+    public int size() {
+        return fragments.size();
+    }
+
+    /**
+     * Smallest deleted key, null if there are no tombstones.
+     */
+    @Nullable
+    public ByteBuffer getFrom() {
+        return fragments.isEmpty() ? null : fragments.get(0).getFrom();
+    }
+
+    /**
+     * Key after the largest deleted one, null if there are no tombstones.
+     */
+    @Nullable
+    public ByteBuffer getTo() {
+        return fragments.isEmpty() ? null : fragments.get(fragments.size() - 1).getTo();
+    }
+
+    private static ByteBuffer max(@NotNull final ByteBuffer first, @NotNull final ByteBuffer second) {
+        return first.compareTo(second) >= 0 ? first : second;
+    }
+
+    private static ByteBuffer min(@NotNull final ByteBuffer first, @NotNull final ByteBuffer second) {
+        return first.compareTo(second) <= 0 ? first : second;
+    }
+
+}
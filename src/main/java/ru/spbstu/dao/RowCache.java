@@ -0,0 +1,320 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of values looked up by key, bounded by the total size of the cached keys and values.
+ * Tombstones and keys without values are cached too.
+ * Admission is frequency based (TinyLFU): once the cache is full a new value is cached only if its key is requested
+ * more often than the key of the least recently used value, so a scan of cold keys doesn't wash out hot ones.
+ * Access frequencies are estimated by a count-min sketch of 4-bit counters which are halved periodically,
+ * so the estimates follow changes of the workload.
+ * The cache is split into independently locked segments like {@link ru.spbstu.dao.table.BlockCache}.
+ */
+@ThreadSafe
+public final class RowCache {
+
+    /**
+     * Returned by {@link #get(ByteBuffer)} if the storage has no value for the key.
+     */
+    static final Value ABSENT = Value.newTombstoneValue(Long.MIN_VALUE);
+
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int AVERAGE_ENTRY_SIZE = 256;
+
+    private final long capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param capacity - maximum size of the cached keys and values in bytes, the cache is disabled if it is 0
+     */
+    public RowCache(final long capacity) {
+        this.capacity = capacity;
+        final long segmentCapacity = capacity / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    private static int hash(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+
+    private Segment segmentFor(final int hash) {
+        return segments[hash >>> (Integer.SIZE - 4)];
+    }
+
+    /**
+     * Returns the cached value, {@link #ABSENT} if the key is known to have no value or null if the key is not cached.
+     */
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        final int hash = hash(key);
+        final Value value = segmentFor(hash).get(key, hash);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the stamp to pass to {@link #put(ByteBuffer, long, Value)} with the value which is read after it.
+     */
+    long stamp(@NotNull final ByteBuffer key) {
+        final int hash = hash(key);
+        return segmentFor(hash).stamp(hash);
+    }
+
+    /**
+     * Caches the value unless the key has been invalidated since the stamp was taken,
+     * so a value read concurrently with a write never replaces the written one.
+     *
+     * @param value - value of the key, null if the storage has no value for the key
+     */
+    void put(@NotNull final ByteBuffer key,
+             final long stamp,
+             @Nullable final Value value) {
+        final int hash = hash(key);
+        final ByteBuffer keyCopy = copy(key);
+        final Value valueCopy;
+        if (value == null) {
+            valueCopy = ABSENT;
+        } else if (value.isTombstone()) {
+            valueCopy = value;
+        } else {
+            valueCopy = new Value(value.getTimestamp(), copy(value.getData()));
+        }
+        segmentFor(hash).put(keyCopy, hash, stamp, valueCopy);
+    }
+
+    /**
+     * Drops the cached value of the key, must be called after the key is written.
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        final int hash = hash(key);
+        segmentFor(hash).invalidate(key, hash);
+    }
+
+    /**
+     * Drops all cached values, e.g. after a range of keys is removed.
+     */
+    void invalidateAll() {
+        for (final Segment segment : segments) {
+            segment.invalidateAll();
+        }
+    }
+
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Amount of values dropped to free space for more frequently requested ones.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Amount of values which were not cached since their keys are requested less often than the cached ones.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (final Segment segment : segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    private final class Segment {
+
+        private static final int STRIPES = 64;
+
+        private final long capacity;
+        private final Map<ByteBuffer, Value> values = new LinkedHashMap<>(16, 0.75f, true);
+        private final FrequencySketch sketch;
+        /**
+         * Versions of key stripes, a stripe is advanced whenever one of its keys is invalidated.
+         */
+        private final long[] versions = new long[STRIPES];
+        private long size;
+
+        Segment(final long capacity) {
+            this.capacity = capacity;
+            this.sketch = new FrequencySketch(capacity / AVERAGE_ENTRY_SIZE);
+        }
+
+        synchronized Value get(@NotNull final ByteBuffer key, final int hash) {
+            if (capacity == 0) {
+                return null;
+            }
+            sketch.increment(hash);
+            return values.get(key);
+        }
+
+        synchronized long stamp(final int hash) {
+            return versions[hash & (STRIPES - 1)];
+        }
+
+        synchronized void put(@NotNull final ByteBuffer key,
+                              final int hash,
+                              final long stamp,
+                              @NotNull final Value value) {
+            final int weight = weight(key, value);
+            if (versions[hash & (STRIPES - 1)] != stamp || weight > capacity) {
+                return;
+            }
+            final Value previous = values.remove(key);
+            if (previous != null) {
+                size -= weight(key, previous);
+            }
+            // victims are picked first, so a rejected value evicts nothing
+            final int frequency = sketch.frequency(hash);
+            final List<ByteBuffer> victims = new ArrayList<>();
+            long freed = 0;
+            final Iterator<Map.Entry<ByteBuffer, Value>> eldest = values.entrySet().iterator();
+            while (size - freed + weight > capacity && eldest.hasNext()) {
+                final Map.Entry<ByteBuffer, Value> victim = eldest.next();
+                if (previous == null && sketch.frequency(hash(victim.getKey())) >= frequency) {
+                    rejections.incrementAndGet();
+                    return;
+                }
+                victims.add(victim.getKey());
+                freed += weight(victim.getKey(), victim.getValue());
+            }
+            for (final ByteBuffer victim : victims) {
+                values.remove(victim);
+            }
+            size -= freed;
+            evictions.addAndGet(victims.size());
+            values.put(key, value);
+            size += weight;
+        }
+
+        synchronized void invalidate(@NotNull final ByteBuffer key, final int hash) {
+            versions[hash & (STRIPES - 1)]++;
+            final Value value = values.remove(key);
+            if (value != null) {
+                size -= weight(key, value);
+            }
+        }
+
+        synchronized void invalidateAll() {
+            for (int i = 0; i < STRIPES; i++) {
+                versions[i]++;
+            }
+            values.clear();
+            size = 0;
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        private int weight(@NotNull final ByteBuffer key, @NotNull final Value value) {
+            return key.remaining() + (value.isTombstone() ? 0 : value.getData().remaining()) + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, 16 counters are packed into a long.
+     * Every key is counted by 4 counters of different rows and its frequency is the minimum of them.
+     * Once the amount of increments reaches 10 times the amount of counters all counters are halved.
+     */
+    private static final class FrequencySketch {
+
+        private static final int MIN_COUNTERS = 1 << 10;
+        private static final int MAX_COUNTERS = 1 << 22;
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long[] SEEDS = {
+                0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+        private final long[] table;
+        private final int sampleSize;
+        private int increments;
+
+        FrequencySketch(final long expectedEntries) {
+            final int counters = (int) Math.min(MAX_COUNTERS,
+                    Long.highestOneBit(Math.max(MIN_COUNTERS, expectedEntries) - 1) << 1);
+            this.table = new long[counters / 16];
+            this.sampleSize = counters * 10;
+        }
+
+        private int index(final int hash, final int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int shift(final int hash, final int row) {
+            return ((hash >>> (row << 3)) & 15) << 2;
+        }
+
+        void increment(final int hash) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                final int index = index(hash, row);
+                final int shift = shift(hash, row);
+                if ((table[index] >>> shift & 15) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++increments == sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(final int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, (int) (table[index(hash, row)] >>> shift(hash, row) & 15));
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = table[i] >>> 1 & RESET_MASK;
+            }
+            increments /= 2;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.table.SSTable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Picks compactions which merge runs of SSTables of similar sizes.
+ * Tables are grouped into buckets: a table joins a bucket if its size is within
+ * [{@link DAOConfig#tieredBucketLow}, {@link DAOConfig#tieredBucketHigh}] of the average size of the bucket,
+ * all tables smaller than {@link DAOConfig#tieredMinTableSize} share one bucket.
+ * The bucket with the most tables is compacted once it has {@link DAOConfig#tieredMinThreshold} tables.
+ */
+@ThreadSafe
+final class SizeTieredCompaction implements CompactionStrategy {
+
+    @NotNull
+    private final DAOConfig config;
+
+    SizeTieredCompaction(@NotNull final DAOConfig config) {
+        this.config = config;
+    }
+
+    @Nullable
+    @Override
+    public CompactionTask pick(@NotNull final TableSet snapshot) {
+        final List<Map.Entry<Integer, SSTable>> tables = new ArrayList<>(snapshot.ssTables.entrySet());
+        tables.sort(Comparator.comparingLong(entry -> entry.getValue().sizeInBytes()));
+
+        List<Map.Entry<Integer, SSTable>> best = null;
+        List<Map.Entry<Integer, SSTable>> bucket = new ArrayList<>();
+        long bucketSize = 0;
+        for (final Map.Entry<Integer, SSTable> table : tables) {
+            final long size = table.getValue().sizeInBytes();
+            if (!bucket.isEmpty() && !fits(size, bucketSize / bucket.size())) {
+                best = better(best, bucket);
+                bucket = new ArrayList<>();
+                bucketSize = 0;
+            }
+            bucket.add(table);
+            bucketSize += size;
+        }
+        best = better(best, bucket);
+        if (best == null || best.size() < config.tieredMinThreshold) {
+            return null;
+        }
+
+        final NavigableMap<Integer, SSTable> inputs = new TreeMap<>();
+        final int amount = Math.min(best.size(), config.tieredMaxThreshold);
+        for (final Map.Entry<Integer, SSTable> table : best.subList(0, amount)) {
+            inputs.put(table.getKey(), table.getValue());
+        }
+        return new CompactionTask(inputs, 0, Long.MAX_VALUE, CompactionStrategy.canDropTombstones(snapshot, inputs));
+    }
+
+    @Nullable
+    @Override
+    public CompactionTask major(@NotNull final TableSet snapshot) {
+        if (snapshot.ssTables.isEmpty()) {
+            return null;
+        }
+        return new CompactionTask(snapshot.ssTables, 0, Long.MAX_VALUE,
+                CompactionStrategy.canDropTombstones(snapshot, snapshot.ssTables));
+    }
+
+    private boolean fits(final long size, final long averageSize) {
+        if (size < config.tieredMinTableSize && averageSize < config.tieredMinTableSize) {
+            return true;
+        }
+        return size >= averageSize * config.tieredBucketLow && size <= averageSize * config.tieredBucketHigh;
+    }
+
+    /**
+     * Buckets with more tables are preferred, of equally populated ones the bucket of smaller tables
+     * is cheaper to compact and is seen first, since tables are sorted by size.
+     */
+    private static List<Map.Entry<Integer, SSTable>> better(@Nullable final List<Map.Entry<Integer, SSTable>> best,
+                                                           @NotNull final List<Map.Entry<Integer, SSTable>> bucket) {
+        if (best == null || bucket.size() > best.size()) {
+            return bucket;
+        }
+        return best;
+    }
+
+}
@@ -4,68 +4,122 @@ import com.google.common.collect.Tables;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.spbstu.dao.table.MemoryTable;
+import ru.spbstu.dao.log.CommitLog;
+import ru.spbstu.dao.table.MutableTable;
 import ru.spbstu.dao.table.SSTable;
-import ru.spbstu.dao.table.Table;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Immutable version of the set of tables. A version holds a reference to each of its SSTables,
+ * the storage holds the current version and readers retain the version they read from,
+ * so SSTables replaced by compaction stay open until the last version containing them is released.
+ */
 public class TableSet {
 
     private static final Logger log = LoggerFactory.getLogger(TableSet.class);
 
-    final MemoryTable memTable;
-    final Set<MemoryTable> memToFlush;
-    final NavigableMap<Integer, Table> ssTables;
+    final MutableTable memTable;
+    final CommitLog commitLog;
+    final WriterGate writers;
+    final Set<MutableTable> memToFlush;
+    final NavigableMap<Integer, SSTable> ssTables;
     final int generation;
+    private final AtomicInteger refs = new AtomicInteger(1);
 
-    public TableSet(@NotNull final MemoryTable memTable,
-                    @NotNull final Set<MemoryTable> memToFlush,
-                    @NotNull final NavigableMap<Integer, Table> ssTables,
-                    final int generation) {
+    /**
+     * @param memTable   - table accepting writes
+     * @param commitLog  - log of the writes into the memory table
+     * @param writers    - gate of the writers into the memory table, shared by all sets with the same memory table
+     * @param memToFlush - tables being flushed on disk
+     * @param ssTables   - tables on disk by their generations
+     * @param generation - generation of the memory table once it is flushed
+     */
+    TableSet(@NotNull final MutableTable memTable,
+             @NotNull final CommitLog commitLog,
+             @NotNull final WriterGate writers,
+             @NotNull final Set<MutableTable> memToFlush,
+             @NotNull final NavigableMap<Integer, SSTable> ssTables,
+             final int generation) {
         this.memTable = memTable;
+        this.commitLog = commitLog;
+        this.writers = writers;
         this.memToFlush = memToFlush;
         this.ssTables = ssTables;
         this.generation = generation;
+        ssTables.values().forEach(SSTable::retain);
     }
 
-    static TableSet provideTableSet(final NavigableMap<Integer, Table> ssTables, final int generation) {
-        return new TableSet(new MemoryTable(), new HashSet<>(), ssTables, generation);
+    /**
+     * Adds a reference to the version unless it has already been released by all holders.
+     *
+     * @return false if the version is released and must not be used
+     */
+    boolean tryRetain() {
+        while (true) {
+            final int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops a reference to the version, the last one releases the SSTables of the version.
+     */
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            ssTables.values().forEach(SSTable::release);
+        }
     }
 
-    TableSet startFlushingOnDisk() {
-        final Set<MemoryTable> newMemToFLush = new HashSet<>(this.memToFlush);
+    static TableSet provideTableSet(final MutableTable memTable,
+                                    final CommitLog commitLog,
+                                    final NavigableMap<Integer, SSTable> ssTables,
+                                    final int generation) {
+        return new TableSet(memTable, commitLog, new WriterGate(), new HashSet<>(), ssTables, generation);
+    }
+
+    TableSet startFlushingOnDisk(final MutableTable newMemTable,
+                                 final CommitLog newCommitLog) {
+        final Set<MutableTable> newMemToFLush = new HashSet<>(this.memToFlush);
         newMemToFLush.add(this.memTable);
-        return new TableSet(new MemoryTable(), newMemToFLush, ssTables, generation + 1);
+        return new TableSet(newMemTable, newCommitLog, new WriterGate(), newMemToFLush, ssTables, generation + 1);
     }
 
-    TableSet finishFlushingOnDisk(final MemoryTable flushedMemTable,
-                                  final File dst,
+    TableSet finishFlushingOnDisk(final MutableTable flushedMemTable,
+                                  final SSTable ssTable,
                                   final int generation) throws IOException {
-        final Set<MemoryTable> newMemToFlush = new HashSet<>(this.memToFlush);
+        final Set<MutableTable> newMemToFlush = new HashSet<>(this.memToFlush);
         final boolean isRemoved = newMemToFlush.remove(flushedMemTable);
         if (!isRemoved) {
             throw new IOException("Failed to flush memory table on disk!");
         }
-        final NavigableMap<Integer, Table> newSsTables = new TreeMap<>(this.ssTables);
-        newSsTables.put(generation,  new SSTable(dst));
-        log.debug("File " + dst.getName() + " was flushed");
-        return new TableSet(memTable, newMemToFlush, newSsTables, this.generation);
+        final NavigableMap<Integer, SSTable> newSsTables = new TreeMap<>(this.ssTables);
+        newSsTables.put(generation, ssTable);
+        log.debug("Generation " + generation + " was flushed");
+        return new TableSet(memTable, commitLog, writers, newMemToFlush, newSsTables, this.generation);
     }
 
-    TableSet startCompact() {
-        return new TableSet(memTable, memToFlush, ssTables, generation + 1);
+    /**
+     * The current generation is reserved for an SSTable written by compaction,
+     * the memory table is flushed to the next one.
+     */
+    TableSet reserveGeneration() {
+        return new TableSet(memTable, commitLog, writers, memToFlush, ssTables, generation + 1);
     }
 
-    TableSet finishCompact(final NavigableMap<Integer, Table> compactedSSTables,
-                           final File dst,
-                           final int generation) throws IOException {
-        final NavigableMap<Integer, Table> newSSTables = new TreeMap<>(ssTables);
+    TableSet finishCompact(final NavigableMap<Integer, SSTable> compactedSSTables,
+                           final NavigableMap<Integer, SSTable> outputSSTables) {
+        final NavigableMap<Integer, SSTable> newSSTables = new TreeMap<>(ssTables);
         final boolean containsAll = ssTables.entrySet().containsAll(compactedSSTables.entrySet());
         if (containsAll) {
             newSSTables.entrySet().removeAll(compactedSSTables.entrySet());
@@ -73,12 +127,14 @@ public class TableSet {
             throw new IllegalStateException("Files to compact were lost!");
         }
 
-        log.debug("File " + dst.getName() + " was compacted");
-        if (newSSTables.put(generation, new SSTable(dst)) != null) {
-            throw new IllegalStateException("File already exists on compaction");
-        }
+        outputSSTables.forEach((generation, ssTable) -> {
+            log.debug("Generation " + generation + " was compacted");
+            if (newSSTables.put(generation, ssTable) != null) {
+                throw new IllegalStateException("File already exists on compaction");
+            }
+        });
 
-        return new TableSet(memTable, memToFlush, newSSTables, this.generation);
+        return new TableSet(memTable, commitLog, writers, memToFlush, newSSTables, this.generation);
     }
 
 }
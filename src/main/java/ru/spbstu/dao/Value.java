@@ -1,18 +1,30 @@
 package ru.spbstu.dao;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.vlog.ValuePointer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 
 public class Value implements Comparable<Value> {
 
     private final long timestamp;
     private final ByteBuffer data;
+    private final ValuePointer pointer;
 
     public Value(final long timestamp,
           final ByteBuffer data) {
+        this(timestamp, data, null);
+    }
+
+    private Value(final long timestamp,
+                  final ByteBuffer data,
+                  final ValuePointer pointer) {
         this.timestamp = timestamp;
         this.data = data;
+        this.pointer = pointer;
     }
 
     private Value(final long timestamp) {
@@ -23,18 +35,59 @@ public class Value implements Comparable<Value> {
         return new Value(timestamp);
     }
 
+    /**
+     * Value stored in the value log, it is read only when its data is requested.
+     */
+    public static Value newSeparatedValue(final long timestamp,
+                                          @NotNull final ValuePointer pointer) {
+        return new Value(timestamp, null, pointer);
+    }
+
     public boolean isTombstone() {
-        return data == null;
+        return data == null && pointer == null;
     }
 
+    public boolean isSeparated() {
+        return pointer != null;
+    }
+
+    @Nullable
+    public ValuePointer getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Returns the data, separated values are read from the value log.
+     *
+     * @throws UncheckedIOException if the value log can't be read
+     */
     @NotNull
     public ByteBuffer getData() {
+        if (pointer != null) {
+            try {
+                return pointer.read().asReadOnlyBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         if (data == null) {
             throw new DeletedValueException("Value has been removed!");
         }
         return data.asReadOnlyBuffer();
     }
 
+    /**
+     * Returns the value with data read from the value log if it is separated,
+     * so it stays readable after the value log segment is collected.
+     */
+    @NotNull
+    public Value resolved() throws IOException {
+        if (pointer == null) {
+            return this;
+        }
+        return new Value(timestamp, pointer.read());
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,73 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upserts and removals applied by {@link DAO#write(WriteBatch)} as a single write.
+ * If a key is mentioned several times the last mutation wins.
+ */
+@NotThreadSafe
+public final class WriteBatch {
+
+    private final List<ByteBuffer> keys = new ArrayList<>();
+    private final List<ByteBuffer> values = new ArrayList<>();
+    private long sizeInBytes;
+
+    /**
+     * Adds upsert of the value by the key.
+     */
+    public WriteBatch upsert(@NotNull final ByteBuffer key,
+                             @NotNull final ByteBuffer value) {
+        return add(key.duplicate(), value.duplicate());
+    }
+
+    /**
+     * Adds removal of the value by the key.
+     */
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        return add(key.duplicate(), null);
+    }
+
+    private WriteBatch add(@NotNull final ByteBuffer key,
+                           @Nullable final ByteBuffer value) {
+        keys.add(key);
+        values.add(value);
+        sizeInBytes += key.remaining() + (value == null ? 0 : value.remaining());
+        return this;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * Total size of keys and values of the batch.
+     */
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @NotNull
+    public ByteBuffer getKey(final int index) {
+        return keys.get(index);
+    }
+
+    /**
+     * Returns the value of the mutation or null if the mutation is a removal.
+     */
+    @Nullable
+    public ByteBuffer getValue(final int index) {
+        return values.get(index);
+    }
+
+}
@@ -0,0 +1,118 @@
+package ru.spbstu.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.spbstu.dao.table.MutableTable;
+import ru.spbstu.dao.table.SSTable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throttles writes by the backlog of the background work: bytes of memory tables waiting for flush
+ * and the amount of level 0 SSTables waiting for compaction.
+ * Between the slowdown and the stop thresholds of either measure every write is delayed proportionally
+ * up to {@link DAOConfig#maxWriteDelayMicros}, beyond the stop threshold writes wait for the backlog to shrink.
+ */
+@ThreadSafe
+final class WriteController {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteController.class);
+
+    @NotNull
+    private final DAOConfig config;
+    private final Object monitor = new Object();
+    private volatile WriteState state = WriteState.NORMAL;
+    private volatile long delayNanos;
+
+    WriteController(@NotNull final DAOConfig config) {
+        this.config = config;
+    }
+
+    WriteState getState() {
+        return state;
+    }
+
+    /**
+     * Recomputes the state after the set of tables has changed.
+     */
+    void update(@NotNull final TableSet tableSet) {
+        long pendingFlushBytes = 0;
+        for (final MutableTable memTable : tableSet.memToFlush) {
+            pendingFlushBytes += memTable.getBytes();
+        }
+        int level0Tables = 0;
+        for (final SSTable ssTable : tableSet.ssTables.values()) {
+            if (ssTable.getLevel() == 0) {
+                level0Tables++;
+            }
+        }
+        final double severity = Math.max(
+                severity(pendingFlushBytes, config.slowdownPendingFlushBytes, config.stopPendingFlushBytes),
+                severity(level0Tables, config.slowdownLevel0Tables, config.stopLevel0Tables));
+
+        final WriteState next;
+        if (severity >= 1) {
+            next = WriteState.STOP;
+        } else if (severity >= 0) {
+            next = WriteState.SLOWDOWN;
+        } else {
+            next = WriteState.NORMAL;
+        }
+        synchronized (monitor) {
+            if (next != state) {
+                logger.info("Writes are switched to {}: {} byte(s) wait for flush, {} table(s) of level 0",
+                        next, pendingFlushBytes, level0Tables);
+            }
+            delayNanos = next == WriteState.SLOWDOWN
+                    ? (long) (severity * TimeUnit.MICROSECONDS.toNanos(config.maxWriteDelayMicros))
+                    : 0;
+            state = next;
+            if (next != WriteState.STOP) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Delays or blocks the calling writer according to the current state.
+     */
+    void throttle() throws InterruptedIOException {
+        if (state == WriteState.NORMAL) {
+            return;
+        }
+        if (state == WriteState.STOP) {
+            synchronized (monitor) {
+                while (state == WriteState.STOP) {
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writes are stopped");
+                    }
+                }
+            }
+        }
+        final long delay = delayNanos;
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+        }
+    }
+
+    /**
+     * Returns how far the value is between the thresholds, negative below the slowdown one.
+     */
+    private static double severity(final long value, final long slowdown, final long stop) {
+        if (value < slowdown) {
+            return -1;
+        }
+        if (stop <= slowdown) {
+            return value >= stop ? 1 : 0;
+        }
+        return (double) (value - slowdown) / (stop - slowdown);
+    }
+
+}
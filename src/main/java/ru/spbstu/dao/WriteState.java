@@ -0,0 +1,23 @@
+package ru.spbstu.dao;
+
+/**
+ * Throttling of writes applied while flushes and compactions fall behind.
+ */
+public enum WriteState {
+
+    /**
+     * Writes are not throttled.
+     */
+    NORMAL,
+
+    /**
+     * Every write is delayed, the closer the storage is to {@link #STOP} the longer.
+     */
+    SLOWDOWN,
+
+    /**
+     * Writes wait until flushes or compactions catch up.
+     */
+    STOP
+
+}
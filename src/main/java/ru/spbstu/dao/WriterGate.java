@@ -0,0 +1,66 @@
+package ru.spbstu.dao;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts writers of a memory table and lets the flush wait until they leave it.
+ * Writers are counted in striped counters, so concurrent writers don't contend on a single one.
+ * Once the gate is sealed new writers are refused and have to retry with the next memory table.
+ */
+@ThreadSafe
+final class WriterGate {
+
+    // every counter takes its own cache line
+    private static final int PADDING = 16;
+    private static final int STRIPES = stripes();
+
+    private final AtomicIntegerArray writers = new AtomicIntegerArray(STRIPES * PADDING);
+    private volatile boolean sealed;
+
+    private static int stripes() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(64, Integer.highestOneBit(processors * 2 - 1) << 1);
+    }
+
+    /**
+     * Returns false if the gate is sealed, otherwise {@link #exit()} must follow.
+     */
+    boolean enter() {
+        final int index = index();
+        writers.getAndIncrement(index);
+        // pairs with the sealing thread which writes the flag first and reads the counters second
+        if (sealed) {
+            writers.getAndDecrement(index);
+            return false;
+        }
+        return true;
+    }
+
+    void exit() {
+        writers.getAndDecrement(index());
+    }
+
+    /**
+     * Refuses new writers and waits for the entered ones to exit.
+     */
+    void sealAndDrain() {
+        sealed = true;
+        for (int i = 0; i < STRIPES; i++) {
+            int spins = 0;
+            while (writers.get(i * PADDING) != 0) {
+                if (++spins % 64 == 0) {
+                    Thread.yield();
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    private static int index() {
+        final long id = Thread.currentThread().getId();
+        return (int) (id * 0x9E3779B97F4A7C15L >>> (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES))) * PADDING;
+    }
+
+}
@@ -0,0 +1,348 @@
+package ru.spbstu.dao.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.Value;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the writes applied to a memory table.
+ * Record structure:
+ * payload size | CRC32C of payload | payload
+ * Payload is a sequence of mutations:
+ * timestamp | key size | key | value size | value
+ * if value size is -1 than value is absent
+ * if value size is -2 than the mutation is a range tombstone from the key to the value
+ * Records are accumulated in memory and written by a single thread at a time,
+ * so concurrent writers waiting for their records share one write and fsync.
+ */
+@ThreadSafe
+public final class CommitLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommitLog.class);
+
+    private static final int TOMBSTONE_FLAG = -1;
+    private static final int RANGE_TOMBSTONE_FLAG = -2;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    @NotNull
+    private final File file;
+    @NotNull
+    private final FileChannel fileChannel;
+    @NotNull
+    private final SyncPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appended;
+    private long durable;
+    private long syncs;
+    private boolean syncing;
+    private boolean closed;
+    private IOException failure;
+
+    public CommitLog(@NotNull final File file,
+                     @NotNull final SyncPolicy policy) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+    }
+
+    /**
+     * Appends the mutation to the log buffer.
+     * @return position which has to be passed to {@link #commit(long)}
+     */
+    public long append(@NotNull final ByteBuffer key,
+                       @NotNull final Value value) throws IOException {
+        return append(mutationSize(key, value), buffer -> writeMutation(buffer, key, value));
+    }
+
+    /**
+     * Appends the range tombstone to the log buffer.
+     * @return position which has to be passed to {@link #commit(long)}
+     */
+    public long appendRange(@NotNull final RangeTombstone tombstone) throws IOException {
+        final ByteBuffer from = tombstone.getFrom();
+        final ByteBuffer to = tombstone.getTo();
+        final int payloadSize = Long.BYTES + Integer.BYTES * 3 + from.remaining() + to.remaining();
+        return append(payloadSize, buffer -> buffer.putLong(tombstone.getTimestamp())
+                .putInt(from.remaining())
+                .put(from.duplicate())
+                .putInt(RANGE_TOMBSTONE_FLAG)
+                .putInt(to.remaining())
+                .put(to.duplicate()));
+    }
+
+    /**
+     * Appends all mutations as a single record, so they are either replayed together or not at all.
+     * @return position which has to be passed to {@link #commit(long)}
+     */
+    public long appendAll(@NotNull final List<Cell> cells) throws IOException {
+        int payloadSize = 0;
+        for (final Cell cell : cells) {
+            payloadSize += mutationSize(cell.getKey(), cell.getValue());
+        }
+        return append(payloadSize, buffer -> {
+            for (final Cell cell : cells) {
+                writeMutation(buffer, cell.getKey(), cell.getValue());
+            }
+        });
+    }
+
+    private long append(final int payloadSize,
+                        @NotNull final Consumer<ByteBuffer> mutationWriter) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Commit log " + file.getName() + " is already closed");
+            }
+            ensureCapacity(HEADER_SIZE + payloadSize);
+            final int start = pending.position();
+            pending.position(start + HEADER_SIZE);
+            mutationWriter.accept(pending);
+
+            final CRC32C crc = new CRC32C();
+            crc.update(pending.duplicate().flip().position(start + HEADER_SIZE));
+            pending.putInt(start, payloadSize);
+            pending.putInt(start + Integer.BYTES, (int) crc.getValue());
+
+            appended += HEADER_SIZE + payloadSize;
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record ending at the given position is persisted according to the sync policy.
+     */
+    public void commit(final long position) throws IOException {
+        if (policy == SyncPolicy.PERIODIC) {
+            final boolean isBacklogTooBig;
+            lock.lock();
+            try {
+                isBacklogTooBig = pending.position() > MAX_PENDING_BYTES;
+            } finally {
+                lock.unlock();
+            }
+            if (!isBacklogTooBig) {
+                return;
+            }
+        }
+        await(position);
+    }
+
+    /**
+     * Persists everything appended so far.
+     */
+    public void sync() throws IOException {
+        final long position;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            position = appended;
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+    }
+
+    private void await(final long position) throws IOException {
+        lock.lock();
+        try {
+            while (durable < position) {
+                if (failure != null) {
+                    throw new IOException("Commit log " + file.getName() + " is broken", failure);
+                }
+                if (syncing) {
+                    synced.await();
+                } else {
+                    writePending();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for commit log sync");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held. The lock is released while the buffer is written,
+     * so other writers keep appending to the spare buffer.
+     */
+    private void writePending() throws IOException {
+        syncing = true;
+        final ByteBuffer toWrite = pending;
+        final long target = appended;
+        pending = spare;
+        spare = null;
+        lock.unlock();
+        try {
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                fileChannel.write(toWrite);
+            }
+            if (policy != SyncPolicy.NONE) {
+                fileChannel.force(false);
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.lock();
+            spare = toWrite.clear();
+            syncing = false;
+            if (failure == null) {
+                durable = target;
+            }
+            syncs++;
+            synced.signalAll();
+        }
+    }
+
+    /**
+     * Amount of writes of the buffer to the file, with the {@link SyncPolicy#PER_WRITE} policy every write
+     * is forced, so concurrent writers sharing one of them share its fsync.
+     */
+    long getSyncs() {
+        lock.lock();
+        try {
+            return syncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureCapacity(final int size) {
+        if (pending.remaining() >= size) {
+            return;
+        }
+        final ByteBuffer extended = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+        pending.flip();
+        extended.put(pending);
+        pending = extended;
+    }
+
+    private static int mutationSize(@NotNull final ByteBuffer key,
+                                    @NotNull final Value value) {
+        final int valueSize = value.isTombstone() ? 0 : value.getData().remaining();
+        return Long.BYTES + Integer.BYTES * 2 + key.remaining() + valueSize;
+    }
+
+    private static void writeMutation(@NotNull final ByteBuffer buffer,
+                                      @NotNull final ByteBuffer key,
+                                      @NotNull final Value value) {
+        buffer.putLong(value.getTimestamp());
+        buffer.putInt(key.remaining());
+        buffer.put(key.duplicate());
+        if (value.isTombstone()) {
+            buffer.putInt(TOMBSTONE_FLAG);
+        } else {
+            final ByteBuffer data = value.getData();
+            buffer.putInt(data.remaining());
+            buffer.put(data);
+        }
+    }
+
+    /**
+     * Reads all complete records of the log and passes their mutations to the consumers.
+     * Reading stops at the first torn or corrupted record.
+     */
+    public static void replay(@NotNull final File file,
+                              @NotNull final BiConsumer<ByteBuffer, Value> consumer,
+                              @NotNull final Consumer<RangeTombstone> rangeConsumer) throws IOException {
+        final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        while (content.remaining() >= HEADER_SIZE) {
+            final int payloadSize = content.getInt();
+            final int checksum = content.getInt();
+            if (payloadSize < 0 || payloadSize > content.remaining()) {
+                logger.warn("Commit log {} has a torn record at {}", file.getName(), content.position() - HEADER_SIZE);
+                return;
+            }
+            final ByteBuffer payload = content.slice().limit(payloadSize);
+            final CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                logger.warn("Commit log {} has a corrupted record at {}",
+                        file.getName(), content.position() - HEADER_SIZE);
+                return;
+            }
+            while (payload.hasRemaining()) {
+                final long timestamp = payload.getLong();
+                final ByteBuffer key = readBuffer(payload, payload.getInt());
+                final int valueSize = payload.getInt();
+                if (valueSize == RANGE_TOMBSTONE_FLAG) {
+                    rangeConsumer.accept(new RangeTombstone(key, readBuffer(payload, payload.getInt()), timestamp));
+                } else if (valueSize == TOMBSTONE_FLAG) {
+                    consumer.accept(key, Value.newTombstoneValue(timestamp));
+                } else {
+                    consumer.accept(key, new Value(timestamp, readBuffer(payload, valueSize)));
+                }
+            }
+            content.position(content.position() + payloadSize);
+        }
+    }
+
+    private static ByteBuffer readBuffer(@NotNull final ByteBuffer buffer, final int size) {
+        final ByteBuffer result = buffer.slice().limit(size);
+        buffer.position(buffer.position() + size);
+        return result;
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Persists pending records and closes the log file.
+     */
+    @Override
+    public void close() throws IOException {
+        final long position;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            position = appended;
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+        fileChannel.close();
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+}
@@ -0,0 +1,29 @@
+package ru.spbstu.dao.log;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Makes changes of directory entries durable, e.g. a file created or renamed right before a crash
+ * may be absent after it unless its directory is forced.
+ */
+public final class Directories {
+
+    private Directories() {
+        // don't instantiate
+    }
+
+    /**
+     * Forces the entries of the directory to disk.
+     */
+    public static void sync(@NotNull final File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+}
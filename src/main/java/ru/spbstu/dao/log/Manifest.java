@@ -0,0 +1,238 @@
+package ru.spbstu.dao.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.spbstu.dao.table.TableMeta;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the changes of the set of SSTables, the storage is opened by reading it
+ * instead of opening every file of the storage directory.
+ * Record structure:
+ * payload size | CRC32C of payload | payload
+ * Payload is a sequence of edits applied at once:
+ * edit type | generation | edit
+ * Table addition edit structure:
+ * level | file size | cells count | min timestamp | max timestamp | first key size | first key
+ * | last key size | last key | value log segments count | value log segments
+ * Value log segment structure:
+ * segment id | size of the entries the table points to
+ * Table removal edit is empty.
+ * A table is recorded only after its file is complete and durable, so files which are not recorded are left
+ * by a crash and may be deleted. Every opening rewrites the manifest with the additions of the live tables only.
+ */
+@ThreadSafe
+public final class Manifest implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Manifest.class);
+
+    public static final String FILE_NAME = "MANIFEST";
+    private static final String TEMPORARY_FILE_NAME = "MANIFEST.tmp";
+    private static final int ADD_TABLE = 1;
+    private static final int REMOVE_TABLE = 2;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    @NotNull
+    private final File file;
+    @NotNull
+    private final FileChannel fileChannel;
+    private IOException failure;
+
+    private Manifest(@NotNull final File file,
+                     @NotNull final FileChannel fileChannel) {
+        this.file = file;
+        this.fileChannel = fileChannel;
+    }
+
+    /**
+     * Replaces the manifest of the storage with a new one containing the given tables only.
+     *
+     * @param storage - directory with the storage files
+     * @param tables  - live tables of the storage
+     * @return the new manifest open for appends
+     */
+    @NotNull
+    public static Manifest create(@NotNull final File storage,
+                                  @NotNull final Collection<TableMeta> tables) throws IOException {
+        final File temporary = new File(storage, TEMPORARY_FILE_NAME);
+        final File file = new File(storage, FILE_NAME);
+        Files.deleteIfExists(temporary.toPath());
+        try (FileChannel channel = FileChannel.open(temporary.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            writeFully(channel, record(Collections.emptyList(), tables));
+            channel.force(false);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        // commit logs replayed into the recorded tables are deleted once the manifest is created
+        Directories.sync(storage);
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new Manifest(file, channel);
+    }
+
+    public static boolean exists(@NotNull final File storage) {
+        return new File(storage, FILE_NAME).exists();
+    }
+
+    /**
+     * Reads all complete records of the manifest of the storage.
+     * Reading stops at the first torn or corrupted record, it was not acknowledged before a crash.
+     *
+     * @return tables of the storage by their generations
+     */
+    @NotNull
+    public static NavigableMap<Integer, TableMeta> replay(@NotNull final File storage) throws IOException {
+        final File file = new File(storage, FILE_NAME);
+        final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        final NavigableMap<Integer, TableMeta> tables = new TreeMap<>();
+        while (content.remaining() >= HEADER_SIZE) {
+            final int payloadSize = content.getInt();
+            final int checksum = content.getInt();
+            if (payloadSize < 0 || payloadSize > content.remaining()) {
+                logger.warn("Manifest has a torn record at {}", content.position() - HEADER_SIZE);
+                break;
+            }
+            final ByteBuffer payload = content.slice().limit(payloadSize);
+            final CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                logger.warn("Manifest has a corrupted record at {}", content.position() - HEADER_SIZE);
+                break;
+            }
+            while (payload.hasRemaining()) {
+                final int type = payload.getInt();
+                final int generation = payload.getInt();
+                if (type == ADD_TABLE) {
+                    tables.put(generation, readTable(generation, payload));
+                } else if (type == REMOVE_TABLE) {
+                    tables.remove(generation);
+                } else {
+                    throw new IOException("Unknown manifest edit " + type);
+                }
+            }
+            content.position(content.position() + payloadSize);
+        }
+        return tables;
+    }
+
+    private static TableMeta readTable(final int generation,
+                                       @NotNull final ByteBuffer payload) {
+        final int level = payload.getInt();
+        final long fileSize = payload.getLong();
+        final int amountOfElements = payload.getInt();
+        final long minTimestamp = payload.getLong();
+        final long maxTimestamp = payload.getLong();
+        final ByteBuffer firstKey = readKey(payload);
+        final ByteBuffer lastKey = readKey(payload);
+        final int segmentsCount = payload.getInt();
+        final int[] segments = new int[segmentsCount];
+        final long[] bytes = new long[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            segments[i] = payload.getInt();
+            bytes[i] = payload.getLong();
+        }
+        return new TableMeta(generation, level, fileSize, amountOfElements, minTimestamp, maxTimestamp,
+                firstKey, lastKey, segments, bytes);
+    }
+
+    /**
+     * Records removals and additions of tables with a single record and persists it,
+     * so after a crash either all of them are applied or none.
+     * Files of the added tables must be forced and their names synced with {@link Directories#sync(File)},
+     * otherwise a crash may leave the record pointing to a truncated or missing file.
+     */
+    public synchronized void apply(@NotNull final Collection<Integer> removed,
+                                   @NotNull final Collection<TableMeta> added) throws IOException {
+        if (failure != null) {
+            throw new IOException("Manifest is broken", failure);
+        }
+        try {
+            writeFully(fileChannel, record(removed, added));
+            fileChannel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private static ByteBuffer record(@NotNull final Collection<Integer> removed,
+                                     @NotNull final Collection<TableMeta> added) {
+        int payloadSize = removed.size() * Integer.BYTES * 2;
+        for (final TableMeta table : added) {
+            payloadSize += Integer.BYTES * 7 + Long.BYTES * 3
+                    + table.getFirstKey().remaining() + table.getLastKey().remaining()
+                    + table.getValueLogSegments().length * (Integer.BYTES + Long.BYTES);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        buffer.position(HEADER_SIZE);
+        for (final int generation : removed) {
+            buffer.putInt(REMOVE_TABLE).putInt(generation);
+        }
+        for (final TableMeta table : added) {
+            final ByteBuffer firstKey = table.getFirstKey();
+            final ByteBuffer lastKey = table.getLastKey();
+            buffer.putInt(ADD_TABLE)
+                    .putInt(table.getGeneration())
+                    .putInt(table.getLevel())
+                    .putLong(table.getFileSize())
+                    .putInt(table.getAmountOfElements())
+                    .putLong(table.getMinTimestamp())
+                    .putLong(table.getMaxTimestamp())
+                    .putInt(firstKey.remaining())
+                    .put(firstKey)
+                    .putInt(lastKey.remaining())
+                    .put(lastKey)
+                    .putInt(table.getValueLogSegments().length);
+            for (int i = 0; i < table.getValueLogSegments().length; i++) {
+                buffer.putInt(table.getValueLogSegments()[i])
+                        .putLong(table.getValueLogBytes()[i]);
+            }
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().flip().position(HEADER_SIZE));
+        buffer.putInt(0, payloadSize);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        return buffer.flip();
+    }
+
+    private static void writeFully(@NotNull final FileChannel channel,
+                                   @NotNull final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readKey(@NotNull final ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final ByteBuffer key = ByteBuffer.allocate(size);
+        key.put(buffer.slice().limit(size));
+        buffer.position(buffer.position() + size);
+        return key.flip();
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        fileChannel.close();
+    }
+
+}
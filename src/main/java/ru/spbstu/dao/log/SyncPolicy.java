@@ -0,0 +1,27 @@
+package ru.spbstu.dao.log;
+
+/**
+ * Defines when records appended to the {@link CommitLog} reach the disk.
+ */
+public enum SyncPolicy {
+
+    /**
+     * Every write waits until its record is forced to disk.
+     * Concurrent writers share a single fsync (group commit).
+     */
+    PER_WRITE,
+
+    /**
+     * Writes return immediately, records are buffered in the process and the log is written
+     * and forced to disk periodically.
+     * Up to one period of acknowledged writes can be lost on a process crash as well as on a power failure.
+     */
+    PERIODIC,
+
+    /**
+     * Every write waits until its record is handed to the OS, the log is never forced.
+     * Survives process crashes but not power failures.
+     */
+    NONE
+
+}
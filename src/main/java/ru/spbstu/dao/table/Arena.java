@@ -0,0 +1,83 @@
+package ru.spbstu.dao.table;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bump allocator of off-heap memory split into chunks.
+ * Address structure:
+ * chunk index (high 32 bits) | offset in the chunk (low 32 bits)
+ * Allocations are aligned to 8 bytes. Memory is never freed separately,
+ * the chunks are released together once the arena and all buffers sliced from it are unreachable.
+ * Allocations must be serialized by the caller, chunks can be read concurrently
+ * by the addresses published after the allocation.
+ */
+@NotThreadSafe
+final class Arena {
+
+    private static final int ALIGNMENT = Long.BYTES;
+
+    private final int chunkSize;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int current = -1;
+    private int position;
+    private volatile long bytes;
+
+    Arena(final int chunkSize) {
+        this.chunkSize = align(chunkSize);
+    }
+
+    /**
+     * Returns the address of zeroed memory of the given size.
+     * Allocations larger than the chunk size get dedicated chunks.
+     */
+    long allocate(final int size) {
+        final int alignedSize = align(size);
+        if (alignedSize > chunkSize) {
+            final int index = addChunk(alignedSize);
+            bytes += alignedSize;
+            return address(index, 0);
+        }
+        if (current < 0 || position + alignedSize > chunkSize) {
+            current = addChunk(chunkSize);
+            position = 0;
+        }
+        final long address = address(current, position);
+        position += alignedSize;
+        bytes += alignedSize;
+        return address;
+    }
+
+    ByteBuffer chunk(final long address) {
+        return chunks[(int) (address >>> Integer.SIZE)];
+    }
+
+    static int offset(final long address) {
+        return (int) address;
+    }
+
+    /**
+     * Allocated bytes including alignment.
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    private int addChunk(final int size) {
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(size + ALIGNMENT - 1).alignedSlice(ALIGNMENT);
+        final ByteBuffer[] extended = Arrays.copyOf(chunks, chunks.length + 1);
+        extended[chunks.length] = chunk;
+        chunks = extended;
+        return chunks.length - 1;
+    }
+
+    private static long address(final int chunk, final int offset) {
+        return (long) chunk << Integer.SIZE | offset;
+    }
+
+    private static int align(final int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+}
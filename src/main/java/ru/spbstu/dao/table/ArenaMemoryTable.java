@@ -0,0 +1,429 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.RangeTombstoneFragments;
+import ru.spbstu.dao.RangeTombstones;
+import ru.spbstu.dao.Value;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongPredicate;
+
+/**
+ * Memory table which keeps keys, values and the skip list indexing them in off-heap {@link Arena} chunks,
+ * so the heap holds a handful of chunk objects regardless of the amount of cells.
+ * Node structure:
+ * value address | height | key size | next node addresses (one per level) | key
+ * Value structure:
+ * timestamp | older value address | value size | value
+ * if value size is -1 than value is absent
+ * Writes are serialized. Nodes and values are completely written before their addresses are published
+ * with release stores, so reads don't take locks. An overwritten value stays in the arena until the flush
+ * and values of a node are linked from the newest to the oldest one, so readers may skip versions which are
+ * not visible to them.
+ */
+@ThreadSafe
+public class ArenaMemoryTable implements MutableTable {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int MAX_HEIGHT = 16;
+    private static final long NIL = 0;
+    private static final long HEAD = 0;
+    private static final int TOMBSTONE_FLAG = -1;
+
+    private static final int VALUE_OFFSET = 0;
+    private static final int HEIGHT_OFFSET = Long.BYTES;
+    private static final int KEY_SIZE_OFFSET = HEIGHT_OFFSET + Integer.BYTES;
+    private static final int NEXT_OFFSET = KEY_SIZE_OFFSET + Integer.BYTES;
+
+    private static final int OLDER_OFFSET = Long.BYTES;
+    private static final int VALUE_SIZE_OFFSET = OLDER_OFFSET + Long.BYTES;
+    private static final int DATA_OFFSET = VALUE_SIZE_OFFSET + Integer.BYTES;
+
+    private final Arena arena;
+    private volatile int amountOfElements;
+    private final RangeTombstoneFragments rangeTombstoneFragments = new RangeTombstoneFragments();
+    /**
+     * Snapshot of {@link #rangeTombstoneFragments}, null if a tombstone was added after it was taken.
+     */
+    private volatile RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+    private volatile long rangeTombstonesBytes;
+    private volatile long minTimestamp;
+
+    /**
+     * @param chunkSize    - size of arena chunks in bytes
+     * @param minTimestamp - timestamps taken by writers of the table are not less than this one
+     */
+    public ArenaMemoryTable(final int chunkSize,
+                            final long minTimestamp) {
+        this.arena = new Arena(chunkSize);
+        this.minTimestamp = minTimestamp;
+        final long head = writeNode(MAX_HEIGHT, ByteBuffer.allocate(0), NIL);
+        assert head == HEAD;
+    }
+
+    @Override
+    public long getBytes() {
+        return arena.getBytes() + rangeTombstonesBytes;
+    }
+
+    @Override
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from,
+                                   @NotNull final LongPredicate visible) {
+        return new ArenaIter(findGreaterOrEqual(from), visible);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(@Nullable final ByteBuffer before,
+                                             @NotNull final LongPredicate visible) {
+        return new DescendingArenaIter(findLess(before), visible);
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key,
+                     @NotNull final LongPredicate visible) {
+        final long node = findGreaterOrEqual(key);
+        if (node == NIL || compare(node, key) != 0) {
+            return null;
+        }
+        return readValue(node, visible);
+    }
+
+    @Override
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        final long node = findGreaterOrEqual(key);
+        return node != NIL && compare(node, key) == 0;
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        put(key, new Value(System.currentTimeMillis(), value.duplicate()));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        put(key, Value.newTombstoneValue(System.currentTimeMillis()));
+    }
+
+    @Override
+    public synchronized void put(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        minTimestamp = Math.min(minTimestamp, value.getTimestamp());
+        final long[] predecessors = new long[MAX_HEIGHT];
+        long node = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = getNext(node, level);
+            while (next != NIL && compare(next, key) < 0) {
+                node = next;
+                next = getNext(node, level);
+            }
+            predecessors[level] = node;
+        }
+
+        final long found = getNext(predecessors[0], 0);
+        if (found != NIL && compare(found, key) == 0) {
+            insertValue(found, value);
+            return;
+        }
+
+        final int height = randomHeight();
+        final long inserted = writeNode(height, key, writeValue(value, NIL));
+        final ByteBuffer chunk = arena.chunk(inserted);
+        final int offset = Arena.offset(inserted);
+        for (int level = 0; level < height; level++) {
+            LONGS.set(chunk, offset + NEXT_OFFSET + level * Long.BYTES, getNext(predecessors[level], level));
+        }
+        // the node is reachable by readers since the first release store
+        for (int level = 0; level < height; level++) {
+            final long predecessor = predecessors[level];
+            LONGS.setRelease(arena.chunk(predecessor),
+                    Arena.offset(predecessor) + NEXT_OFFSET + level * Long.BYTES, inserted);
+        }
+        amountOfElements++;
+    }
+
+    @Override
+    public synchronized void putAll(@NotNull final List<Cell> cells) {
+        for (final Cell cell : cells) {
+            put(cell.getKey(), cell.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void removeRange(@NotNull final RangeTombstone tombstone) {
+        rangeTombstoneFragments.add(tombstone);
+        rangeTombstones = null;
+        rangeTombstonesBytes += tombstone.getFrom().remaining() + tombstone.getTo().remaining() + Long.BYTES;
+        minTimestamp = Math.min(minTimestamp, tombstone.getTimestamp());
+    }
+
+    @NotNull
+    @Override
+    public RangeTombstones getRangeTombstones() {
+        final RangeTombstones snapshot = rangeTombstones;
+        return snapshot == null ? takeRangeTombstonesSnapshot() : snapshot;
+    }
+
+    private synchronized RangeTombstones takeRangeTombstonesSnapshot() {
+        if (rangeTombstones == null) {
+            rangeTombstones = rangeTombstoneFragments.snapshot();
+        }
+        return rangeTombstones;
+    }
+
+    @Override
+    public int size() {
+        return amountOfElements;
+    }
+
+    @Override
+    public void close() {
+        // chunks are released with the last buffer sliced from them
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (height < MAX_HEIGHT && random.nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    private long writeNode(final int height,
+                           @NotNull final ByteBuffer key,
+                           final long valueAddress) {
+        final int keySize = key.remaining();
+        final int keyOffset = NEXT_OFFSET + height * Long.BYTES;
+        final long node = arena.allocate(keyOffset + keySize);
+        final ByteBuffer chunk = arena.chunk(node);
+        final int offset = Arena.offset(node);
+        LONGS.set(chunk, offset + VALUE_OFFSET, valueAddress);
+        chunk.putInt(offset + HEIGHT_OFFSET, height);
+        chunk.putInt(offset + KEY_SIZE_OFFSET, keySize);
+        chunk.duplicate().position(offset + keyOffset).put(key.duplicate());
+        return node;
+    }
+
+    /**
+     * Links the value into the values of the node ordered by timestamps, writers may apply values out of order.
+     * The value goes before the values with the same timestamp, e.g. the last write of a key in a batch wins.
+     */
+    private void insertValue(final long node,
+                             @NotNull final Value value) {
+        ByteBuffer linkChunk = arena.chunk(node);
+        int linkOffset = Arena.offset(node) + VALUE_OFFSET;
+        long older = (long) LONGS.get(linkChunk, linkOffset);
+        while (older != NIL && arena.chunk(older).getLong(Arena.offset(older)) > value.getTimestamp()) {
+            linkChunk = arena.chunk(older);
+            linkOffset = Arena.offset(older) + OLDER_OFFSET;
+            older = (long) LONGS.get(linkChunk, linkOffset);
+        }
+        LONGS.setRelease(linkChunk, linkOffset, writeValue(value, older));
+    }
+
+    private long writeValue(@NotNull final Value value,
+                            final long older) {
+        final int dataSize = value.isTombstone() ? 0 : value.getData().remaining();
+        final long address = arena.allocate(DATA_OFFSET + dataSize);
+        final ByteBuffer chunk = arena.chunk(address);
+        final int offset = Arena.offset(address);
+        chunk.putLong(offset, value.getTimestamp());
+        LONGS.set(chunk, offset + OLDER_OFFSET, older);
+        if (value.isTombstone()) {
+            chunk.putInt(offset + VALUE_SIZE_OFFSET, TOMBSTONE_FLAG);
+        } else {
+            chunk.putInt(offset + VALUE_SIZE_OFFSET, dataSize);
+            chunk.duplicate().position(offset + DATA_OFFSET).put(value.getData());
+        }
+        return address;
+    }
+
+    private long getNext(final long node, final int level) {
+        return (long) LONGS.getAcquire(arena.chunk(node), Arena.offset(node) + NEXT_OFFSET + level * Long.BYTES);
+    }
+
+    /**
+     * Returns the first node with the key greater or equal to the given one, NIL if there is no such node.
+     */
+    private long findGreaterOrEqual(@NotNull final ByteBuffer key) {
+        long node = HEAD;
+        long next = NIL;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            next = getNext(node, level);
+            while (next != NIL && compare(next, key) < 0) {
+                node = next;
+                next = getNext(node, level);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the last node with the key less than the given one or the last node if the key is null,
+     * NIL if there is no such node.
+     */
+    private long findLess(@Nullable final ByteBuffer key) {
+        long node = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = getNext(node, level);
+            while (next != NIL && (key == null || compare(next, key) < 0)) {
+                node = next;
+                next = getNext(node, level);
+            }
+        }
+        return node == HEAD ? NIL : node;
+    }
+
+    /**
+     * Compares the key of the node with the given one in the order of {@link ByteBuffer#compareTo}.
+     */
+    private int compare(final long node, @NotNull final ByteBuffer key) {
+        final ByteBuffer chunk = arena.chunk(node);
+        final int offset = Arena.offset(node);
+        final int keySize = chunk.getInt(offset + KEY_SIZE_OFFSET);
+        final int keyOffset = offset + NEXT_OFFSET + chunk.getInt(offset + HEIGHT_OFFSET) * Long.BYTES;
+        final int length = Math.min(keySize, key.remaining());
+        for (int i = 0; i < length; i++) {
+            final int compareResult = Byte.compare(chunk.get(keyOffset + i), key.get(key.position() + i));
+            if (compareResult != 0) {
+                return compareResult;
+            }
+        }
+        return keySize - key.remaining();
+    }
+
+    private ByteBuffer readKey(final long node) {
+        final ByteBuffer chunk = arena.chunk(node);
+        final int offset = Arena.offset(node);
+        final int keyOffset = offset + NEXT_OFFSET + chunk.getInt(offset + HEIGHT_OFFSET) * Long.BYTES;
+        return slice(chunk, keyOffset, chunk.getInt(offset + KEY_SIZE_OFFSET));
+    }
+
+    /**
+     * Returns the newest value of the node visible to the reader, null if there is none.
+     */
+    @Nullable
+    private Value readValue(final long node,
+                            @NotNull final LongPredicate visible) {
+        long address = (long) LONGS.getAcquire(arena.chunk(node), Arena.offset(node) + VALUE_OFFSET);
+        while (address != NIL) {
+            final ByteBuffer chunk = arena.chunk(address);
+            final int offset = Arena.offset(address);
+            final long timestamp = chunk.getLong(offset);
+            if (visible.test(timestamp)) {
+                final int valueSize = chunk.getInt(offset + VALUE_SIZE_OFFSET);
+                if (valueSize == TOMBSTONE_FLAG) {
+                    return Value.newTombstoneValue(timestamp);
+                }
+                return new Value(timestamp, slice(chunk, offset + DATA_OFFSET, valueSize));
+            }
+            address = (long) LONGS.getAcquire(chunk, offset + OLDER_OFFSET);
+        }
+        return null;
+    }
+
+    private static ByteBuffer slice(@NotNull final ByteBuffer chunk, final int offset, final int size) {
+        return chunk.duplicate().position(offset).limit(offset + size).slice();
+    }
+
+    private class ArenaIter implements Iterator<Cell> {
+
+        private final LongPredicate visible;
+        private long next;
+        private Value nextValue;
+
+        ArenaIter(final long first,
+                  @NotNull final LongPredicate visible) {
+            this.visible = visible;
+            skipInvisible(first);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Memory table has no more elements");
+            }
+            final Cell cell = new Cell(readKey(next), nextValue);
+            skipInvisible(getNext(next, 0));
+            return cell;
+        }
+
+        private void skipInvisible(final long node) {
+            next = node;
+            while (next != NIL) {
+                nextValue = readValue(next, visible);
+                if (nextValue != null) {
+                    return;
+                }
+                next = getNext(next, 0);
+            }
+        }
+    }
+
+    /**
+     * Nodes are linked forward only, so the predecessor of every returned node is searched from the head.
+     */
+    private class DescendingArenaIter implements Iterator<Cell> {
+
+        private final LongPredicate visible;
+        private long next;
+        private Value nextValue;
+
+        DescendingArenaIter(final long first,
+                            @NotNull final LongPredicate visible) {
+            this.visible = visible;
+            skipInvisible(first);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Memory table has no more elements");
+            }
+            final ByteBuffer key = readKey(next);
+            final Cell cell = new Cell(key, nextValue);
+            skipInvisible(findLess(key));
+            return cell;
+        }
+
+        private void skipInvisible(final long node) {
+            next = node;
+            while (next != NIL) {
+                nextValue = readValue(next, visible);
+                if (nextValue != null) {
+                    return;
+                }
+                next = findLess(readKey(next));
+            }
+        }
+    }
+
+}
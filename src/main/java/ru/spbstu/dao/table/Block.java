@@ -0,0 +1,267 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.Value;
+import ru.spbstu.dao.vlog.ValueLog;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of a data block of an SSTable.
+ * Block structure:
+ * cells | offsets of restart points | restart points count
+ * Cell structure:
+ * shared key size | unshared key size | unshared key suffix | timestamp | value size | value
+ * key sizes are varints, the key shares the prefix of the given size with the key of the previous cell
+ * if value size is -1 than value is absent,
+ * if value size is -2 than the value is stored in the value log and a {@link ru.spbstu.dao.vlog.ValuePointer}
+ * follows instead of it
+ * Every {@link ru.spbstu.dao.DAOConfig#blockRestartInterval} cells a restart point stores the key in full,
+ * lookups search restart points and then decode cells of a single restart interval.
+ * Values of a block served from a file mapping are read-only slices of the mapping, they keep it mapped
+ * until they are collected.
+ */
+@ThreadSafe
+final class Block {
+
+    static final int TOMBSTONE_FLAG = -1;
+    static final int SEPARATED_FLAG = -2;
+
+    private static final byte[] EMPTY_KEY = new byte[0];
+
+    private final ByteBuffer data;
+    @Nullable
+    private final ValueLog valueLog;
+    private final int restartsCount;
+    private final int shiftToRestartsArray;
+
+    Block(@NotNull final ByteBuffer data,
+          @Nullable final ValueLog valueLog) {
+        this.data = data;
+        this.valueLog = valueLog;
+        this.restartsCount = data.getInt(data.limit() - Integer.BYTES);
+        this.shiftToRestartsArray = data.limit() - Integer.BYTES * (1 + restartsCount);
+    }
+
+    int sizeInBytes() {
+        return data.capacity();
+    }
+
+    private int getRestart(final int index) {
+        return data.getInt(shiftToRestartsArray + index * Integer.BYTES);
+    }
+
+    /**
+     * Returns the full key stored by the restart point.
+     */
+    private ByteBuffer getRestartKey(final int index) {
+        final ByteBuffer in = data.duplicate().position(getRestart(index));
+        final int shared = readVarInt(in);
+        assert shared == 0;
+        final int keySize = readVarInt(in);
+        return in.limit(in.position() + keySize).slice();
+    }
+
+    /**
+     * Returns the index of the last restart point with the key less or equal to the given one.
+     */
+    private int searchRestart(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = restartsCount - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final int compareResult = getRestartKey(mid).compareTo(key);
+            if (compareResult < 0) {
+                left = mid + 1;
+            } else if (compareResult > 0) {
+                right = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return Math.max(0, right);
+    }
+
+    /**
+     * Returns cells of the block starting from the first one.
+     */
+    Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Returns cells of the block starting from the first one with the key greater or equal to the given one.
+     */
+    Cursor cursor(@NotNull final ByteBuffer from) {
+        if (restartsCount == 0) {
+            return cursor();
+        }
+        final Cursor cursor = new Cursor(getRestart(searchRestart(from)));
+        cursor.skipTo(from);
+        return cursor;
+    }
+
+    /**
+     * Returns cells of the block with keys less than the given one in descending order, all cells if it is null.
+     */
+    Iterator<Cell> descendingCursor(@Nullable final ByteBuffer before) {
+        return new DescendingCursor(before);
+    }
+
+    /**
+     * Returns the value stored exactly by the key or null if the block doesn't contain it.
+     */
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        final Cursor cursor = cursor(key);
+        if (cursor.hasNext()) {
+            final Cell cell = cursor.next();
+            if (cell.getKey().equals(key)) {
+                return cell.getValue();
+            }
+        }
+        return null;
+    }
+
+    static int readVarInt(@NotNull final ByteBuffer in) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = in.get();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Decodes cells one by one, every key is rebuilt from the prefix of the previous one.
+     * Keys of the returned cells are copies, values are slices of the block.
+     */
+    final class Cursor implements Iterator<Cell> {
+
+        private final ByteBuffer in;
+        private byte[] key = EMPTY_KEY;
+        private Cell next;
+
+        private Cursor(final int offset) {
+            this(offset, shiftToRestartsArray);
+        }
+
+        private Cursor(final int offset, final int end) {
+            this.in = data.duplicate().position(offset).limit(end);
+            this.next = decode();
+        }
+
+        private void skipTo(@NotNull final ByteBuffer from) {
+            while (next != null && next.getKey().compareTo(from) < 0) {
+                next = decode();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException("Block has no more elements");
+            }
+            final Cell result = next;
+            next = decode();
+            return result;
+        }
+
+        private Cell decode() {
+            if (!in.hasRemaining()) {
+                return null;
+            }
+            final int shared = readVarInt(in);
+            final int unshared = readVarInt(in);
+            final byte[] cellKey = Arrays.copyOf(key, shared + unshared);
+            in.get(cellKey, shared, unshared);
+            key = cellKey;
+
+            final long timestamp = in.getLong();
+            final int valueSize = in.getInt();
+            if (valueSize == TOMBSTONE_FLAG) {
+                return new Cell(ByteBuffer.wrap(cellKey), Value.newTombstoneValue(timestamp));
+            }
+            if (valueSize == SEPARATED_FLAG) {
+                if (valueLog == null) {
+                    throw new IllegalStateException("Block refers to the value log which is not opened");
+                }
+                return new Cell(ByteBuffer.wrap(cellKey), Value.newSeparatedValue(timestamp, valueLog.readPointer(in)));
+            }
+            final ByteBuffer value = in.slice().limit(valueSize);
+            in.position(in.position() + valueSize);
+            return new Cell(ByteBuffer.wrap(cellKey), new Value(timestamp, value));
+        }
+    }
+
+    /**
+     * Cells can be decoded forward only, so every restart interval is decoded at once
+     * and returned backwards, starting from the last interval.
+     */
+    final class DescendingCursor implements Iterator<Cell> {
+
+        private final Deque<Cell> interval = new ArrayDeque<>();
+        private ByteBuffer before;
+        private int restart;
+
+        private DescendingCursor(@Nullable final ByteBuffer before) {
+            this.before = before;
+            if (restartsCount == 0) {
+                this.restart = -1;
+            } else {
+                this.restart = before == null ? restartsCount - 1 : searchRestart(before);
+            }
+            fill();
+        }
+
+        private void fill() {
+            while (interval.isEmpty() && restart >= 0) {
+                final int end = restart + 1 < restartsCount ? getRestart(restart + 1) : shiftToRestartsArray;
+                final Cursor cursor = new Cursor(getRestart(restart), end);
+                while (cursor.hasNext()) {
+                    final Cell cell = cursor.next();
+                    if (before != null && cell.getKey().compareTo(before) >= 0) {
+                        break;
+                    }
+                    interval.push(cell);
+                }
+                // keys of the preceding intervals are less than keys of the first one
+                before = null;
+                restart--;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !interval.isEmpty();
+        }
+
+        @Override
+        public Cell next() {
+            if (interval.isEmpty()) {
+                throw new NoSuchElementException("Block has no more elements");
+            }
+            final Cell result = interval.pop();
+            if (interval.isEmpty()) {
+                fill();
+            }
+            return result;
+        }
+    }
+
+}
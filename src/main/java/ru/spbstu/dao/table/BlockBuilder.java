@@ -0,0 +1,129 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+import ru.spbstu.dao.Value;
+import ru.spbstu.dao.vlog.ValuePointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Accumulates cells of a single data block in the format read by {@link Block}.
+ */
+final class BlockBuilder {
+
+    private static final int MAX_VAR_INT_SIZE = 5;
+
+    private final int restartInterval;
+    private ByteBuffer buffer;
+    private int[] restarts = new int[16];
+    private int restartsCount;
+    private int amountOfElements;
+    private ByteBuffer lastKey;
+
+    BlockBuilder(final int blockSize,
+                 final int restartInterval) {
+        this.buffer = ByteBuffer.allocate(blockSize);
+        this.restartInterval = restartInterval;
+    }
+
+    boolean isEmpty() {
+        return amountOfElements == 0;
+    }
+
+    /**
+     * Size of the block if it is finished after adding a cell of the given size.
+     */
+    int sizeWith(final int cellSize) {
+        return buffer.position() + cellSize + Integer.BYTES * (restartsCount + 2);
+    }
+
+    /**
+     * Upper bound of the size of the cell in the block, the key is counted in full.
+     */
+    static int cellSize(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final int valueSize;
+        if (value.isSeparated()) {
+            valueSize = ValuePointer.BYTES;
+        } else {
+            valueSize = value.isTombstone() ? 0 : value.getData().remaining();
+        }
+        return MAX_VAR_INT_SIZE * 2 + Long.BYTES + Integer.BYTES + key.remaining() + valueSize;
+    }
+
+    void add(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        ensureCapacity(cellSize(key, value));
+        int shared = 0;
+        if (amountOfElements % restartInterval == 0) {
+            if (restartsCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restarts.length * 2);
+            }
+            restarts[restartsCount++] = buffer.position();
+        } else {
+            shared = sharedPrefix(lastKey, key);
+        }
+        amountOfElements++;
+        lastKey = key;
+
+        putVarInt(shared);
+        putVarInt(key.remaining() - shared);
+        buffer.put(key.duplicate().position(key.position() + shared));
+        buffer.putLong(value.getTimestamp());
+        final ValuePointer pointer = value.getPointer();
+        if (pointer != null) {
+            buffer.putInt(Block.SEPARATED_FLAG);
+            pointer.writeTo(buffer);
+        } else if (value.isTombstone()) {
+            buffer.putInt(Block.TOMBSTONE_FLAG);
+        } else {
+            final ByteBuffer data = value.getData();
+            buffer.putInt(data.remaining());
+            buffer.put(data);
+        }
+    }
+
+    /**
+     * Appends restart points and returns the block ready to be written.
+     * The returned buffer is valid until the next {@link #reset()}.
+     */
+    ByteBuffer finish() {
+        ensureCapacity(Integer.BYTES * (restartsCount + 1));
+        for (int i = 0; i < restartsCount; i++) {
+            buffer.putInt(restarts[i]);
+        }
+        buffer.putInt(restartsCount);
+        return buffer.flip();
+    }
+
+    void reset() {
+        buffer.clear();
+        restartsCount = 0;
+        amountOfElements = 0;
+        lastKey = null;
+    }
+
+    private static int sharedPrefix(@NotNull final ByteBuffer first, @NotNull final ByteBuffer second) {
+        final int mismatch = first.mismatch(second);
+        return mismatch < 0 ? first.remaining() : mismatch;
+    }
+
+    private void putVarInt(final int value) {
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            buffer.put((byte) (rest & 0x7F | 0x80));
+            rest >>>= 7;
+        }
+        buffer.put((byte) rest);
+    }
+
+    private void ensureCapacity(final int size) {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        final ByteBuffer extended = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        extended.put(buffer);
+        buffer = extended;
+    }
+
+}
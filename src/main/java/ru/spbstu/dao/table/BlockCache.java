@@ -0,0 +1,132 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of SSTable data blocks bounded by the total size of the cached blocks.
+ * The cache is split into independently locked segments to reduce contention,
+ * one instance is meant to be shared by all tables of the process.
+ */
+@ThreadSafe
+public final class BlockCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity - maximum size of the cached blocks in bytes
+     */
+    public BlockCache(final long capacity) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    private static long key(final long tableId, final int blockIndex) {
+        return tableId << Integer.SIZE | blockIndex;
+    }
+
+    private Segment segmentFor(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> (Long.SIZE - 4))];
+    }
+
+    @Nullable
+    Block get(final long tableId, final int blockIndex) {
+        final long key = key(tableId, blockIndex);
+        final Block block = segmentFor(key).get(key);
+        if (block == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return block;
+    }
+
+    void put(final long tableId, final int blockIndex, @NotNull final Block block) {
+        final long key = key(tableId, blockIndex);
+        segmentFor(key).put(key, block);
+    }
+
+    /**
+     * Drops all cached blocks of the table.
+     */
+    void invalidate(final long tableId, final int blocksCount) {
+        for (int i = 0; i < blocksCount; i++) {
+            final long key = key(tableId, i);
+            segmentFor(key).remove(key);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (final Segment segment : segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    private static final class Segment {
+
+        private final long capacity;
+        private final Map<Long, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        Segment(final long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Block get(final long key) {
+            return blocks.get(key);
+        }
+
+        synchronized void put(final long key, @NotNull final Block block) {
+            final Block previous = blocks.put(key, block);
+            if (previous != null) {
+                size -= weight(previous);
+            }
+            size += weight(block);
+
+            final Iterator<Block> eldest = blocks.values().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                size -= weight(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        synchronized void remove(final long key) {
+            final Block block = blocks.remove(key);
+            if (block != null) {
+                size -= weight(block);
+            }
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        private static int weight(@NotNull final Block block) {
+            return block.sizeInBytes() + ENTRY_OVERHEAD;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fence pointers of an SSTable, the first keys of its data blocks.
+ * Keys are packed into a single array, so the index takes no object per block and is searched in memory.
+ * Keys are ordered like {@link ByteBuffer#compareTo(ByteBuffer)} orders them.
+ */
+final class BlockIndex {
+
+    private final byte[] keys;
+    /**
+     * Start of the key of every block in {@link #keys} followed by the end of the last key.
+     */
+    private final int[] keyOffsets;
+
+    BlockIndex(@NotNull final byte[] keys,
+               @NotNull final int[] keyOffsets) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+    }
+
+    int size() {
+        return keyOffsets.length - 1;
+    }
+
+    /**
+     * Returns the first key of the block, the buffer shares the index and must not be modified.
+     */
+    @NotNull
+    ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(keys, keyOffsets[index], keyOffsets[index + 1] - keyOffsets[index]).slice();
+    }
+
+    /**
+     * Compares the first key of the block with the given one.
+     */
+    int compare(final int index, @NotNull final ByteBuffer key) {
+        if (key.hasArray()) {
+            final int offset = key.arrayOffset();
+            return Arrays.compare(keys, keyOffsets[index], keyOffsets[index + 1],
+                    key.array(), offset + key.position(), offset + key.limit());
+        }
+        return ByteBuffer.wrap(keys, keyOffsets[index], keyOffsets[index + 1] - keyOffsets[index]).compareTo(key);
+    }
+
+    /**
+     * Returns the index of the last block with the first key less or equal to the given one.
+     * Blocks before the given index are not searched, the next block is checked first.
+     */
+    int find(@NotNull final ByteBuffer key, final int fromIndex) {
+        final int size = size();
+        if (fromIndex + 1 >= size || compare(fromIndex + 1, key) > 0) {
+            return fromIndex;
+        }
+        int left = fromIndex + 1;
+        int right = size - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final int compareResult = compare(mid, key);
+            if (compareResult < 0) {
+                left = mid + 1;
+            } else if (compareResult > 0) {
+                right = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return right;
+    }
+
+    long sizeInBytes() {
+        return keys.length + (long) keyOffsets.length * Integer.BYTES;
+    }
+
+}
@@ -0,0 +1,103 @@
+package ru.spbstu.dao.table;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the keys of a table.
+ * Bit positions are derived from a single 64-bit murmur3 hash of the key
+ * and a second hash mixed out of it (Kirsch-Mitzenmacher double hashing).
+ * Positions are combined in 64 bits, so every bit of a filter is reachable whatever its size.
+ */
+public final class BloomFilter {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final long[] bits;
+    private final int hashFunctions;
+    private final long bitSize;
+
+    BloomFilter(@NotNull final long[] bits, final int hashFunctions) {
+        this.bits = bits;
+        this.hashFunctions = hashFunctions;
+        this.bitSize = (long) bits.length * Long.SIZE;
+    }
+
+    /**
+     * Creates an empty filter sized for the given amount of keys and false positive probability.
+     */
+    static BloomFilter create(final int expectedElements, final double fpp) {
+        final int elements = Math.max(expectedElements, 1);
+        final double bitsCount = -elements * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        final int words = (int) Math.max(1, Math.ceil(bitsCount / Long.SIZE));
+        final int hashFunctions = (int) Math.max(1, Math.round((double) words * Long.SIZE / elements * Math.log(2)));
+        return new BloomFilter(new long[words], hashFunctions);
+    }
+
+    static long hash(@NotNull final ByteBuffer key) {
+        return HASH_FUNCTION.hashBytes(key.duplicate()).asLong();
+    }
+
+    void put(final long hash) {
+        final long hash2 = mix(hash);
+        for (int i = 1; i <= hashFunctions; i++) {
+            final long index = bitIndex(hash + i * hash2);
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        final long hash = hash(key);
+        final long hash2 = mix(hash);
+        for (int i = 1; i <= hashFunctions; i++) {
+            final long index = bitIndex(hash + i * hash2);
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long bitIndex(final long combinedHash) {
+        return Math.floorMod(combinedHash, bitSize);
+    }
+
+    /**
+     * The 64-bit finalizer of murmur3, spreads the hash of the key into the step between its bit positions.
+     */
+    private static long mix(final long hash) {
+        long h = hash ^ (hash >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    int getWords() {
+        return bits.length;
+    }
+
+    void writeTo(@NotNull final ByteBuffer buffer) {
+        for (final long word : bits) {
+            buffer.putLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(@NotNull final ByteBuffer buffer,
+                                final int words,
+                                final int hashFunctions) {
+        final long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new BloomFilter(bits, hashFunctions);
+    }
+
+}
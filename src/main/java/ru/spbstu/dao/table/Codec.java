@@ -0,0 +1,27 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of SSTable data blocks, implementations must be thread-safe.
+ */
+public interface Codec {
+
+    /**
+     * Returns the compressed content of the buffer, the buffer itself is left untouched.
+     */
+    @NotNull
+    ByteBuffer compress(@NotNull ByteBuffer data);
+
+    /**
+     * Returns the decompressed content of the buffer.
+     *
+     * @param size - size of the data before compression
+     */
+    @NotNull
+    ByteBuffer decompress(@NotNull ByteBuffer compressed, int size) throws IOException;
+
+}
@@ -0,0 +1,54 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codecs of SSTable data blocks, the id of the codec is written to the SSTable footer.
+ */
+public enum Compression {
+    NONE(0, new Identity()),
+    DEFLATE(1, new DeflateCodec());
+
+    private final int id;
+    private final Codec codec;
+
+    Compression(final int id, @NotNull final Codec codec) {
+        this.id = id;
+        this.codec = codec;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    @NotNull
+    Codec getCodec() {
+        return codec;
+    }
+
+    static Compression of(final int id) {
+        for (final Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + id);
+    }
+
+    private static final class Identity implements Codec {
+
+        @NotNull
+        @Override
+        public ByteBuffer compress(@NotNull final ByteBuffer data) {
+            return data.duplicate();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer decompress(@NotNull final ByteBuffer compressed, final int size) {
+            return compressed.duplicate();
+        }
+    }
+}
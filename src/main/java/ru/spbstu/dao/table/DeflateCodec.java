@@ -0,0 +1,57 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec of the JDK zlib bindings, every thread reuses its own deflater and inflater.
+ */
+@ThreadSafe
+final class DeflateCodec implements Codec {
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    @NotNull
+    @Override
+    public ByteBuffer compress(@NotNull final ByteBuffer data) {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data.duplicate());
+        deflater.finish();
+        ByteBuffer compressed = ByteBuffer.allocate(data.remaining() + data.remaining() / 16 + 64);
+        while (!deflater.finished()) {
+            if (!compressed.hasRemaining()) {
+                compressed = ByteBuffer.allocate(compressed.capacity() * 2).put(compressed.flip());
+            }
+            deflater.deflate(compressed);
+        }
+        return compressed.flip();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer decompress(@NotNull final ByteBuffer compressed, final int size) throws IOException {
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed.duplicate());
+        final ByteBuffer data = ByteBuffer.allocate(size);
+        try {
+            while (data.hasRemaining()) {
+                if (inflater.inflate(data) == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed block is truncated");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed block is corrupted", e);
+        }
+        return data.flip();
+    }
+
+}
@@ -1,66 +1,148 @@
 package ru.spbstu.dao.table;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.RangeTombstoneFragments;
+import ru.spbstu.dao.RangeTombstones;
 import ru.spbstu.dao.Value;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.SortedMap;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
 
+/**
+ * Memory table keeping the versions of a key in a list from the newest to the oldest one.
+ * The lists are immutable, a write replaces the list of the key.
+ */
 @ThreadSafe
-public class MemoryTable implements Table {
+public class MemoryTable implements MutableTable {
 
-    private final SortedMap<ByteBuffer, Value> map;
-    private final AtomicInteger bytes;
+    private final NavigableMap<ByteBuffer, Version> map;
+    private final AtomicLong bytes;
+    private final AtomicLong minTimestamp;
+    private final RangeTombstoneFragments rangeTombstoneFragments = new RangeTombstoneFragments();
+    /**
+     * Snapshot of {@link #rangeTombstoneFragments}, null if a tombstone was added after it was taken.
+     */
+    private volatile RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
 
-    public MemoryTable() {
+    /**
+     * @param minTimestamp - timestamps taken by writers of the table are not less than this one
+     */
+    public MemoryTable(final long minTimestamp) {
         this.map = new ConcurrentSkipListMap<>();
-        this.bytes = new AtomicInteger();
+        this.bytes = new AtomicLong();
+        this.minTimestamp = new AtomicLong(minTimestamp);
     }
 
-    public int getBytes() {
+    @Override
+    public long getBytes() {
         return bytes.get();
     }
 
+    @Override
+    public long getMinTimestamp() {
+        return minTimestamp.get();
+    }
+
     @NotNull
     @Override
-    public Iterator<Cell> iterator(@NotNull ByteBuffer from) {
-        return map.tailMap(from)
-                .entrySet()
-                .stream()
-                .map(entry -> new Cell(entry.getKey(), entry.getValue()))
-                .iterator();
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from,
+                                   @NotNull final LongPredicate visible) {
+        return cells(map.tailMap(from, true), visible);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(@Nullable final ByteBuffer before,
+                                             @NotNull final LongPredicate visible) {
+        return cells((before == null ? map : map.headMap(before, false)).descendingMap(), visible);
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key,
+                     @NotNull final LongPredicate visible) {
+        final Version version = map.get(key);
+        return version == null ? null : version.find(visible);
+    }
+
+    @Override
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        return map.containsKey(key);
     }
 
     @Override
     public void upsert(@NotNull ByteBuffer key, @NotNull ByteBuffer value) {
-        final Value val = map.put(key.duplicate(), new Value(System.currentTimeMillis(), value.duplicate()));
-        if (val == null) {
-            bytes.addAndGet(key.remaining() + value.remaining() + Long.BYTES);
-        } else {
-            if (val.isTombstone()) {
-                bytes.addAndGet(value.remaining());
-            } else {
-                bytes.addAndGet(value.remaining() - val.getData().remaining());
-            }
-        }
+        put(key, new Value(System.currentTimeMillis(), value.duplicate()));
     }
 
     @Override
     public void remove(@NotNull ByteBuffer key) {
-        final Value value = map.put(key.duplicate(), Value.newTombstoneValue(System.currentTimeMillis()));
-        if (value == null) {
-            bytes.addAndGet(key.remaining() + Long.BYTES);
-        } else if (!value.isTombstone()) {
-            bytes.addAndGet(value.getData().remaining());
+        put(key, Value.newTombstoneValue(System.currentTimeMillis()));
+    }
+
+    @Override
+    public void put(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final ByteBuffer copy = key.duplicate();
+        final Version versions = map.compute(copy, (k, newest) -> Version.insert(newest, value));
+        final long keyBytes = versions.older == null ? copy.remaining() : 0;
+        bytes.addAndGet(keyBytes + Long.BYTES + dataSize(value));
+        updateMinTimestamp(value.getTimestamp());
+    }
+
+    @Override
+    public synchronized void removeRange(@NotNull final RangeTombstone tombstone) {
+        rangeTombstoneFragments.add(tombstone);
+        rangeTombstones = null;
+        bytes.addAndGet(tombstone.getFrom().remaining() + tombstone.getTo().remaining() + Long.BYTES);
+        updateMinTimestamp(tombstone.getTimestamp());
+    }
+
+    private void updateMinTimestamp(final long timestamp) {
+        if (timestamp < minTimestamp.get()) {
+            minTimestamp.accumulateAndGet(timestamp, Math::min);
         }
     }
 
+    @NotNull
+    @Override
+    public RangeTombstones getRangeTombstones() {
+        final RangeTombstones snapshot = rangeTombstones;
+        return snapshot == null ? takeRangeTombstonesSnapshot() : snapshot;
+    }
+
+    private synchronized RangeTombstones takeRangeTombstonesSnapshot() {
+        if (rangeTombstones == null) {
+            rangeTombstones = rangeTombstoneFragments.snapshot();
+        }
+        return rangeTombstones;
+    }
+
+    private static Iterator<Cell> cells(@NotNull final NavigableMap<ByteBuffer, Version> versions,
+                                        @NotNull final LongPredicate visible) {
+        return versions.entrySet()
+                .stream()
+                .map(entry -> {
+                    final Value value = entry.getValue().find(visible);
+                    return value == null ? null : new Cell(entry.getKey(), value);
+                })
+                .filter(Objects::nonNull)
+                .iterator();
+    }
+
+    private static int dataSize(@NotNull final Value value) {
+        return value.isTombstone() ? 0 : value.getData().remaining();
+    }
+
     @Override
     public int size() {
         return map.size();
@@ -70,4 +152,44 @@ public class MemoryTable implements Table {
     public void close() {
         //nothing to close
     }
+
+    private static final class Version {
+
+        private final Value value;
+        @Nullable
+        private final Version older;
+
+        Version(@NotNull final Value value,
+                @Nullable final Version older) {
+            this.value = value;
+            this.older = older;
+        }
+
+        /**
+         * Returns the versions with the value inserted by its timestamp, writers may apply values out of order.
+         * The value goes before the versions with the same timestamp, e.g. the last write of a key in a batch wins.
+         */
+        @NotNull
+        static Version insert(@Nullable final Version versions,
+                              @NotNull final Value value) {
+            if (versions == null || versions.value.getTimestamp() <= value.getTimestamp()) {
+                return new Version(value, versions);
+            }
+            return new Version(versions.value, insert(versions.older, value));
+        }
+
+        /**
+         * Returns the newest visible value starting from this version, null if there is none.
+         */
+        @Nullable
+        Value find(@NotNull final LongPredicate visible) {
+            for (Version version = this; version != null; version = version.older) {
+                if (visible.test(version.value.getTimestamp())) {
+                    return version.value;
+                }
+            }
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,101 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * In-memory table accepting writes until it is flushed on disk.
+ * The table keeps overwritten versions of keys until the flush, so a reader may skip versions which are
+ * not visible to it, e.g. the cells of a batch which is still being applied.
+ * Methods without a visibility predicate read the newest versions.
+ */
+public interface MutableTable extends Table {
+
+    /**
+     * Makes every version visible, so the newest one is read.
+     */
+    LongPredicate NEWEST = timestamp -> true;
+
+    @NotNull
+    @Override
+    default Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return iterator(from, NEWEST);
+    }
+
+    @NotNull
+    @Override
+    default Iterator<Cell> descendingIterator(@Nullable final ByteBuffer before) {
+        return descendingIterator(before, NEWEST);
+    }
+
+    @Nullable
+    @Override
+    default Value get(@NotNull final ByteBuffer key) {
+        return get(key, NEWEST);
+    }
+
+    /**
+     * Returns the newest cells with timestamps accepted by the predicate, keys without such a version are skipped.
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull ByteBuffer from, @NotNull LongPredicate visible);
+
+    /**
+     * Descending version of {@link #iterator(ByteBuffer, LongPredicate)}, see {@link #descendingIterator(ByteBuffer)}.
+     */
+    @NotNull
+    Iterator<Cell> descendingIterator(@Nullable ByteBuffer before, @NotNull LongPredicate visible);
+
+    /**
+     * Returns the newest version of the key with the timestamp accepted by the predicate, null if there is none.
+     */
+    @Nullable
+    Value get(@NotNull ByteBuffer key, @NotNull LongPredicate visible);
+
+    /**
+     * Returns the table as a reader with the given visibility sees it.
+     */
+    @NotNull
+    default Table view(@NotNull final LongPredicate visible) {
+        return visible == NEWEST ? this : new MutableTableView(this, visible);
+    }
+
+    /**
+     * Inserts the value as is, keeping its timestamp.
+     */
+    void put(@NotNull ByteBuffer key, @NotNull Value value);
+
+    /**
+     * Inserts the cells as is, tables guarded by a lock take it once for all of them.
+     */
+    default void putAll(@NotNull final List<Cell> cells) {
+        for (final Cell cell : cells) {
+            put(cell.getKey(), cell.getValue());
+        }
+    }
+
+    /**
+     * Deletes the key range as is, keeping the timestamp of the tombstone.
+     */
+    void removeRange(@NotNull RangeTombstone tombstone);
+
+    /**
+     * Memory held by the table in bytes including overwritten versions, compared with the flush threshold.
+     */
+    long getBytes();
+
+    /**
+     * Lower bound of the timestamps of the cells and range tombstones in the table, including writes
+     * which have entered the table but are not applied yet.
+     */
+    long getMinTimestamp();
+
+}
@@ -0,0 +1,81 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.RangeTombstones;
+import ru.spbstu.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.function.LongPredicate;
+
+/**
+ * Read-only view of a memory table showing the versions accepted by the visibility predicate.
+ */
+final class MutableTableView implements Table {
+
+    private final MutableTable table;
+    private final LongPredicate visible;
+
+    MutableTableView(@NotNull final MutableTable table,
+                     @NotNull final LongPredicate visible) {
+        this.table = table;
+        this.visible = visible;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return table.iterator(from, visible);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(@Nullable final ByteBuffer before) {
+        return table.descendingIterator(before, visible);
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) {
+        return table.get(key, visible);
+    }
+
+    @Override
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        return table.mightContain(key);
+    }
+
+    @NotNull
+    @Override
+    public RangeTombstones getRangeTombstones() {
+        return table.getRangeTombstones();
+    }
+
+    @Override
+    public long getDeletedAt(@NotNull final ByteBuffer key) {
+        return table.getDeletedAt(key);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        throw new UnsupportedOperationException("View of a memory table is read-only");
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        throw new UnsupportedOperationException("View of a memory table is read-only");
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public void close() {
+        // the viewed table is closed by its owner
+    }
+
+}
@@ -1,45 +1,416 @@
 package ru.spbstu.dao.table;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.RangeTombstones;
 import ru.spbstu.dao.Value;
+import ru.spbstu.dao.vlog.ValueLog;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
 
 @ThreadSafe
 public class SSTable implements Table {
 
     private static final Logger logger = LoggerFactory.getLogger(SSTable.class);
-    private static final int TOMBSTONE_FLAG = -1;
-
-    private final int shiftToOffsetsArray;
+    static final int FOOTER_SIZE = Long.BYTES * 3 + Integer.BYTES * 9;
+    private static final AtomicLong ID_GENERATOR = new AtomicLong();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final long id = ID_GENERATOR.incrementAndGet();
+    private final AtomicInteger refs = new AtomicInteger();
+    private volatile Runnable onObsoleteDeleted;
+    private final File file;
+    private final long fileSize;
+    private final int level;
     private final int amountOfElements;
-    private final FileChannel fileChannel;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final ByteBuffer firstKey;
+    private final ByteBuffer lastKey;
+    private final boolean verifyChecksums;
+    private final boolean mmap;
+    private final long mmapSegmentSize;
+    private final BlockCache blockCache;
+    private final TableCache tableCache;
+    @Nullable
+    private final ValueLog valueLog;
+    private final int[] valueLogSegments;
+    private final long[] valueLogBytes;
+    private volatile Reader reader;
+    private volatile boolean referenced;
+    private volatile int blocksCount;
+    private boolean closed;
+
+    public SSTable(@NotNull final File file,
+                   @NotNull final DAOConfig config) throws IOException {
+        this(file, config, null);
+    }
+
+    /**
+     * File structure.
+     * data blocks | index | bloom filter words | range tombstones | value log segments | footer
+     * Index structure:
+     * index entries | last key size | last key
+     * Index entry structure (one per data block):
+     * first key size | first key | block offset | block size | decompressed block size | CRC32C of stored block
+     * Range tombstone structure (tombstones are disjoint and sorted):
+     * from size | from | to size | to | timestamp
+     * Value log segment structure (one per segment the table points into):
+     * segment id | size of the entries the table points to
+     * Footer structure:
+     * index offset | index size | blocks count | bloom filter hash functions | bloom filter words count | cells count
+     * | min timestamp | max timestamp | level | range tombstones count | compression id | value log segments count
+     * Timestamps and key bounds of the table take range tombstones into account.
+     * A block is stored uncompressed if compression doesn't make it smaller, then both sizes are equal.
+     * Compressed blocks are decompressed once into the block cache. If {@link DAOConfig#mmap} is set,
+     * uncompressed data blocks are served as slices of file mappings instead of being read into the block cache,
+     * the mappings are released by the garbage collector once no returned value refers to them.
+     * The table holds the value log segments it points into until its file is deleted.
+     * The file is open and the index, the bloom filter and range tombstones are loaded only while the table
+     * is in the {@link TableCache}, they are loaded again by the next access once the table is evicted.
+     */
+    public SSTable(@NotNull final File file,
+                   @NotNull final DAOConfig config,
+                   @Nullable final ValueLog valueLog) throws IOException {
+        this.file = file;
+        this.valueLog = valueLog;
+        this.blockCache = config.blockCache;
+        this.tableCache = config.tableCache;
+        this.verifyChecksums = config.verifyChecksums;
+        this.mmap = config.mmap;
+        this.mmapSegmentSize = config.mmapSegmentSize;
+        final Reader opened = new Reader(-1);
+        fileSize = opened.fileSize;
+        level = opened.level;
+        amountOfElements = opened.amountOfElements;
+        minTimestamp = opened.minTimestamp;
+        maxTimestamp = opened.maxTimestamp;
+        // bounds are copied so the index they are sliced from isn't kept after the table is evicted
+        firstKey = copy(opened.firstKey);
+        lastKey = copy(opened.lastKey);
+        valueLogSegments = opened.valueLogSegments;
+        valueLogBytes = opened.valueLogBytes;
+        if (valueLogSegments.length > 0 && valueLog == null) {
+            opened.evict();
+            throw new IOException("SSTable " + file.getName() + " points into the value log which is not opened");
+        }
+        if (valueLog != null) {
+            valueLog.retain(valueLogSegments, valueLogBytes);
+        }
+        reader = opened;
+        referenced = true;
+        tableCache.opened(this);
+    }
+
+    /**
+     * Creates the table recorded in the manifest without reading its file, it is opened by the first access.
+     */
+    public SSTable(@NotNull final File file,
+                   @NotNull final TableMeta meta,
+                   @NotNull final DAOConfig config,
+                   @Nullable final ValueLog valueLog) {
+        this.file = file;
+        this.valueLog = valueLog;
+        this.blockCache = config.blockCache;
+        this.tableCache = config.tableCache;
+        this.verifyChecksums = config.verifyChecksums;
+        this.mmap = config.mmap;
+        this.mmapSegmentSize = config.mmapSegmentSize;
+        fileSize = meta.getFileSize();
+        level = meta.getLevel();
+        amountOfElements = meta.getAmountOfElements();
+        minTimestamp = meta.getMinTimestamp();
+        maxTimestamp = meta.getMaxTimestamp();
+        firstKey = meta.getFirstKey();
+        lastKey = meta.getLastKey();
+        valueLogSegments = meta.getValueLogSegments();
+        valueLogBytes = meta.getValueLogBytes();
+        if (valueLog != null) {
+            valueLog.retain(valueLogSegments, valueLogBytes);
+        }
+    }
+
+    /**
+     * Returns the loaded table retained by the caller, it must be released after its file channel is read.
+     */
+    private Reader acquire() throws IOException {
+        referenced = true;
+        final Reader current = reader;
+        if (current != null && current.tryRetain()) {
+            tableCache.hit();
+            return current;
+        }
+        final Reader opened;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("SSTable " + file.getName() + " is closed");
+            }
+            final Reader loaded = reader;
+            if (loaded != null && loaded.tryRetain()) {
+                tableCache.hit();
+                return loaded;
+            }
+            opened = new Reader(fileSize);
+            opened.tryRetain();
+            reader = opened;
+        }
+        tableCache.opened(this);
+        return opened;
+    }
+
+    /**
+     * Returns the loaded table without retaining it. Its index stays valid after it is evicted,
+     * but its file channel and mappings may be closed, so reads of blocks retain the table.
+     */
+    private Reader index() throws IOException {
+        final Reader current = acquire();
+        current.release();
+        return current;
+    }
 
-    public SSTable(@NotNull final File file) throws IOException {
-        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
-        final int fileSize = (int) fileChannel.size();
+    /**
+     * @return true if the table was accessed since the previous call
+     */
+    boolean clearReferenced() {
+        final boolean wasReferenced = referenced;
+        referenced = false;
+        return wasReferenced;
+    }
 
-        final ByteBuffer offsetBuf = ByteBuffer.allocate(Integer.BYTES);
-        fileChannel.read(offsetBuf, fileSize - Integer.BYTES);
-        amountOfElements = offsetBuf.flip().getInt();
-        shiftToOffsetsArray = fileSize - Integer.BYTES * (1 + amountOfElements);
+    /**
+     * Unloads the table, its file is closed once the reads in flight finish.
+     * Cached blocks are kept, they stay valid until the table is closed.
+     */
+    void evict() {
+        final Reader current;
+        synchronized (this) {
+            current = reader;
+            reader = null;
+        }
+        if (current != null) {
+            current.evict();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException {
+        final Reader index = acquire();
+        try {
+            return pinned(index, new SSTableIter(index, from));
+        } catch (IOException | RuntimeException e) {
+            index.release();
+            throw e;
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(@Nullable final ByteBuffer before) throws IOException {
+        final Reader index = acquire();
+        try {
+            return pinned(index, new DescendingSSTableIter(index, before));
+        } catch (IOException | RuntimeException e) {
+            index.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes over the retained table, an iterator reading file mappings holds it until the iterator is exhausted
+     * or collected, other iterators read blocks through the currently loaded table and don't hold it.
+     */
+    private Iterator<Cell> pinned(@NotNull final Reader index,
+                                  @NotNull final Iterator<Cell> iterator) {
+        if (index.segments == null) {
+            index.release();
+            return iterator;
+        }
+        return new MappedIter(iterator, index);
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) throws IOException {
+        if (!mightCover(key)) {
+            return null;
+        }
+        final Reader index = acquire();
+        try {
+            if (index.blockIndex.size() == 0 || index.blockIndex.compare(0, key) > 0
+                    || !index.bloomFilter.mightContain(key)) {
+                return null;
+            }
+            return getBlock(index, index.blockIndex.find(key, 0)).get(key);
+        } finally {
+            index.release();
+        }
+    }
+
+    /**
+     * Keys are resolved in a single pass over the index, neighbouring keys of the same block share
+     * its lookup, verification and decompression.
+     */
+    @NotNull
+    @Override
+    public Value[] getAll(@NotNull final List<ByteBuffer> sortedKeys) throws IOException {
+        final Value[] values = new Value[sortedKeys.size()];
+        if (values.length == 0 || firstKey.compareTo(sortedKeys.get(values.length - 1)) > 0
+                || lastKey.compareTo(sortedKeys.get(0)) < 0) {
+            return values;
+        }
+        final Reader index = acquire();
+        try {
+            if (index.blockIndex.size() == 0) {
+                return values;
+            }
+            int blockIndex = -1;
+            Block block = null;
+            for (int i = 0; i < values.length; i++) {
+                final ByteBuffer key = sortedKeys.get(i);
+                if (index.blockIndex.compare(0, key) > 0 || !index.bloomFilter.mightContain(key)) {
+                    continue;
+                }
+                final int nextIndex = index.blockIndex.find(key, Math.max(blockIndex, 0));
+                if (nextIndex != blockIndex) {
+                    blockIndex = nextIndex;
+                    block = getBlock(index, nextIndex);
+                }
+                values[i] = block.get(key);
+            }
+            return values;
+        } finally {
+            index.release();
+        }
     }
 
     @NotNull
     @Override
-    public Iterator<Cell> iterator(@NotNull ByteBuffer from) {
-        return new SSTableIter(from);
+    public RangeTombstones getRangeTombstones() {
+        try {
+            return index().rangeTombstones;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Keys beyond the bounds of the table are answered without loading it.
+     */
+    @Override
+    public long getDeletedAt(@NotNull final ByteBuffer key) {
+        return mightCover(key) ? getRangeTombstones().getTimestamp(key) : Long.MIN_VALUE;
+    }
+
+    private boolean mightCover(@NotNull final ByteBuffer key) {
+        return firstKey.compareTo(key) <= 0 && lastKey.compareTo(key) >= 0;
+    }
+
+    /**
+     * All cells of the table are newer or of the same age as the returned timestamp.
+     */
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    /**
+     * All cells of the table are older or of the same age as the returned timestamp.
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Level of the table in the leveled compaction, flushed tables are of level 0.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * The smallest key of the table.
+     */
+    public ByteBuffer getFirstKey() {
+        return firstKey;
+    }
+
+    /**
+     * The largest key of the table, the end of the last range tombstone if it is beyond the last cell.
+     */
+    public ByteBuffer getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * First keys of the data blocks, they sample the key distribution of the table.
+     * The buffers are shared and must not be modified.
+     */
+    public List<ByteBuffer> getBlockKeys() throws IOException {
+        final BlockIndex blockIndex = index().blockIndex;
+        final List<ByteBuffer> keys = new ArrayList<>(blockIndex.size());
+        for (int i = 0; i < blockIndex.size(); i++) {
+            keys.add(blockIndex.key(i));
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * Memory taken by the index and the bloom filter of the table, 0 if they are not loaded.
+     */
+    public long getIndexSizeInBytes() {
+        final Reader current = reader;
+        return current == null ? 0 : current.sizeInBytes();
+    }
+
+    int[] getValueLogSegments() {
+        return valueLogSegments;
+    }
+
+    long[] getValueLogBytes() {
+        return valueLogBytes;
+    }
+
+    public long sizeInBytes() {
+        return fileSize;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        if (!mightCover(key)) {
+            return false;
+        }
+        try {
+            return index().bloomFilter.mightContain(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
@@ -57,150 +428,491 @@ public class SSTable implements Table {
         return amountOfElements;
     }
 
+    /**
+     * Writes cells and range tombstones to the file, large values are moved into the value log if it is given.
+     * Data blocks are of {@link DAOConfig#blockSize} bytes, a block exceeds it only if it contains a single cell.
+     * Range tombstones are requested after all cells are written, so they may depend on the consumed cells.
+     */
     public static void serialize(@NotNull final File file,
-                          @NotNull final Iterator<Cell> elementsIter) throws IOException {
-        try (FileChannel fileChannel
-                     = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)){
-            final List<Integer> offsets = new ArrayList<>();
-            int offset = 0;
-
+                                 @NotNull final Iterator<Cell> elementsIter,
+                                 @NotNull final Supplier<RangeTombstones> rangeTombstonesSupplier,
+                                 @NotNull final DAOConfig config,
+                                 @Nullable final ValueLog valueLog,
+                                 final int level) throws IOException {
+        try (SSTableWriter writer = new SSTableWriter(file, config, valueLog)) {
             while (elementsIter.hasNext()) {
-                final Cell cell = elementsIter.next();
-                final ByteBuffer key = cell.getKey();
-                final Value value = cell.getValue();
-                final int keySize = key.remaining();
-
-                offsets.add(offset);
-                offset += keySize + Integer.BYTES * 2 + Long.BYTES;
-
-                // write key size
-                fileChannel.write(ByteBuffer.allocate(Integer.BYTES).putInt(keySize).flip());
-                // write key
-                fileChannel.write(key);
-                // write timestamp
-                fileChannel.write(ByteBuffer.allocate(Long.BYTES).putLong(value.getTimestamp()).flip());
-
-                if (value.isTombstone()) {
-                    fileChannel.write(ByteBuffer.allocate(Integer.BYTES).putInt(TOMBSTONE_FLAG).flip());
+                writer.add(elementsIter.next());
+            }
+            writer.finish(rangeTombstonesSupplier.get(), level);
+        }
+    }
+
+    private static ByteBuffer readKey(@NotNull final ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final ByteBuffer key = ByteBuffer.allocate(size);
+        key.put(buffer.slice().limit(size));
+        buffer.position(buffer.position() + size);
+        return key.flip();
+    }
+
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    private static ByteBuffer min(@NotNull final ByteBuffer first, @NotNull final ByteBuffer second) {
+        return first.compareTo(second) <= 0 ? first : second;
+    }
+
+    private static ByteBuffer max(@NotNull final ByteBuffer first, @NotNull final ByteBuffer second) {
+        return first.compareTo(second) >= 0 ? first : second;
+    }
+
+    /**
+     * Returns the block of the loaded table, the block is read through the currently loaded table
+     * since the given one may have been evicted. Mappings of the given table are read only while it is retained.
+     */
+    private Block getBlock(@NotNull final Reader index, final int blockIndex) throws IOException {
+        final boolean isCompressed = index.blockSizes[blockIndex] != index.rawBlockSizes[blockIndex];
+        if (index.segments != null && !isCompressed) {
+            return new Block(index.verified(blockIndex, index.mappedBlock(blockIndex)), valueLog);
+        }
+        Block block = blockCache.get(id, blockIndex);
+        if (block == null) {
+            final ByteBuffer stored;
+            if (index.segments == null) {
+                final Reader current = acquire();
+                try {
+                    stored = current.readFully(index.blockOffsets[blockIndex], index.blockSizes[blockIndex]);
+                } finally {
+                    current.release();
+                }
+            } else {
+                stored = index.mappedBlock(blockIndex);
+            }
+            index.verified(blockIndex, stored);
+            block = new Block(isCompressed ? index.codec.decompress(stored, index.rawBlockSizes[blockIndex]) : stored,
+                    valueLog);
+            blockCache.put(id, blockIndex, block);
+        }
+        return block;
+    }
+
+    /**
+     * Loaded part of the table. It is retained while its file channel is read, the channel is closed once
+     * the table is evicted and no more retained. Values of mapped blocks are read-only slices of the mappings,
+     * a slice keeps its mapping reachable, so the mappings are never unmapped explicitly.
+     */
+    private final class Reader {
+
+        private final FileChannel fileChannel;
+        private final long fileSize;
+        private final int level;
+        private final int amountOfElements;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+        private final BlockIndex blockIndex;
+        private final ByteBuffer firstKey;
+        private final ByteBuffer lastKey;
+        private final RangeTombstones rangeTombstones;
+        private final long[] blockOffsets;
+        private final int[] blockSizes;
+        private final int[] rawBlockSizes;
+        private final int[] blockChecksums;
+        private final Codec codec;
+        private final BloomFilter bloomFilter;
+        private final MappedByteBuffer[] segments;
+        private final long[] segmentOffsets;
+        private final int[] blockSegments;
+        private final int[] valueLogSegments;
+        private final long[] valueLogBytes;
+        /**
+         * Amount of readers of the file channel, -1 once it is closed.
+         */
+        private final AtomicInteger holders = new AtomicInteger();
+        private volatile boolean evicted;
+
+        /**
+         * @param expectedFileSize - size of the file recorded in the manifest, -1 if it is unknown
+         */
+        Reader(final long expectedFileSize) throws IOException {
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                fileSize = fileChannel.size();
+                if (expectedFileSize >= 0 && fileSize != expectedFileSize) {
+                    throw new IOException("Size of " + file.getName() + " differs from the recorded one");
+                }
+
+                final ByteBuffer footerBuf = readFully(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+                final long indexOffset = footerBuf.getLong();
+                final int indexSize = footerBuf.getInt();
+                final int blocksCount = footerBuf.getInt();
+                final int hashFunctions = footerBuf.getInt();
+                final int bloomWords = footerBuf.getInt();
+                amountOfElements = footerBuf.getInt();
+                minTimestamp = footerBuf.getLong();
+                maxTimestamp = footerBuf.getLong();
+                level = footerBuf.getInt();
+                final int rangeTombstonesCount = footerBuf.getInt();
+                codec = Compression.of(footerBuf.getInt()).getCodec();
+                final int valueLogSegmentsCount = footerBuf.getInt();
+
+                final ByteBuffer metaBuf = readFully(indexOffset, (int) (fileSize - FOOTER_SIZE - indexOffset));
+                final int[] keyPositions = new int[blocksCount];
+                final int[] keyOffsets = new int[blocksCount + 1];
+                blockOffsets = new long[blocksCount];
+                blockSizes = new int[blocksCount];
+                rawBlockSizes = new int[blocksCount];
+                blockChecksums = new int[blocksCount];
+                for (int i = 0; i < blocksCount; i++) {
+                    final int keySize = metaBuf.getInt();
+                    keyPositions[i] = metaBuf.position();
+                    keyOffsets[i + 1] = keyOffsets[i] + keySize;
+                    metaBuf.position(metaBuf.position() + keySize);
+                    blockOffsets[i] = metaBuf.getLong();
+                    blockSizes[i] = metaBuf.getInt();
+                    rawBlockSizes[i] = metaBuf.getInt();
+                    blockChecksums[i] = metaBuf.getInt();
+                }
+                final byte[] keys = new byte[keyOffsets[blocksCount]];
+                for (int i = 0; i < blocksCount; i++) {
+                    System.arraycopy(metaBuf.array(), metaBuf.arrayOffset() + keyPositions[i],
+                            keys, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i]);
+                }
+                blockIndex = new BlockIndex(keys, keyOffsets);
+                final ByteBuffer lastCellKey = readKey(metaBuf);
+                assert metaBuf.position() == indexSize;
+                bloomFilter = BloomFilter.readFrom(metaBuf, bloomWords, hashFunctions);
+                final List<RangeTombstone> tombstones = new ArrayList<>(rangeTombstonesCount);
+                for (int i = 0; i < rangeTombstonesCount; i++) {
+                    final ByteBuffer from = readKey(metaBuf);
+                    final ByteBuffer to = readKey(metaBuf);
+                    tombstones.add(new RangeTombstone(from, to, metaBuf.getLong()));
+                }
+                rangeTombstones = RangeTombstones.of(tombstones);
+                valueLogSegments = new int[valueLogSegmentsCount];
+                valueLogBytes = new long[valueLogSegmentsCount];
+                for (int i = 0; i < valueLogSegmentsCount; i++) {
+                    valueLogSegments[i] = metaBuf.getInt();
+                    valueLogBytes[i] = metaBuf.getLong();
+                }
+
+                if (rangeTombstones.isEmpty()) {
+                    firstKey = blocksCount == 0 ? lastCellKey : blockIndex.key(0);
+                    lastKey = lastCellKey;
+                } else if (blocksCount == 0) {
+                    firstKey = rangeTombstones.getFrom();
+                    lastKey = rangeTombstones.getTo();
                 } else {
-                    final ByteBuffer valueBuffer = value.getData();
-                    final int valueSize = valueBuffer.get();
-                    // write value size
-                    fileChannel.write(ByteBuffer.allocate(Integer.BYTES).putInt(valueSize).flip());
-                    // write value
-                    fileChannel.write(valueBuffer);
-                    offset += valueSize;
+                    firstKey = min(blockIndex.key(0), rangeTombstones.getFrom());
+                    lastKey = max(lastCellKey, rangeTombstones.getTo());
                 }
+
+                if (mmap) {
+                    blockSegments = new int[blocksCount];
+                    final List<Long> offsets = new ArrayList<>();
+                    final List<MappedByteBuffer> buffers = new ArrayList<>();
+                    int first = 0;
+                    while (first < blocksCount) {
+                        final long start = blockOffsets[first];
+                        int last = first;
+                        while (last + 1 < blocksCount
+                                && blockOffsets[last + 1] + blockSizes[last + 1] - start <= mmapSegmentSize) {
+                            last++;
+                        }
+                        final long size = blockOffsets[last] + blockSizes[last] - start;
+                        for (int i = first; i <= last; i++) {
+                            blockSegments[i] = buffers.size();
+                        }
+                        offsets.add(start);
+                        buffers.add(fileChannel.map(FileChannel.MapMode.READ_ONLY, start, size));
+                        first = last + 1;
+                    }
+                    segments = buffers.toArray(new MappedByteBuffer[0]);
+                    segmentOffsets = offsets.stream().mapToLong(Long::longValue).toArray();
+                } else {
+                    segments = null;
+                    segmentOffsets = null;
+                    blockSegments = null;
+                }
+            } catch (IOException | RuntimeException e) {
+                fileChannel.close();
+                throw e;
             }
+            SSTable.this.blocksCount = blockOffsets.length;
+            logger.debug("Loaded {} with {} block(s), its index takes {} byte(s)",
+                    file.getName(), blockOffsets.length, sizeInBytes());
+        }
+
+        /**
+         * Memory taken by the fence pointers, the positions of the blocks and the bloom filter.
+         */
+        long sizeInBytes() {
+            final long perBlock = Long.BYTES + Integer.BYTES * (blockSegments == null ? 3 : 4);
+            return blockIndex.sizeInBytes() + perBlock * blockOffsets.length
+                    + (long) bloomFilter.getWords() * Long.BYTES;
+        }
 
-            for (final Integer i : offsets) {
-                fileChannel.write(ByteBuffer.allocate(Integer.BYTES).putInt(i).flip());
+        boolean tryRetain() {
+            while (true) {
+                final int current = holders.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (holders.compareAndSet(current, current + 1)) {
+                    return true;
+                }
             }
-            fileChannel.write(ByteBuffer.allocate(Integer.BYTES).putInt(offsets.size()).flip());
         }
-    }
 
-    private int getOffset(final int position) throws IOException {
-        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        fileChannel.read(buffer, shiftToOffsetsArray + position * Integer.BYTES);
-        return buffer.flip().getInt();
-    }
+        void release() {
+            if (holders.decrementAndGet() == 0 && evicted) {
+                closeIfIdle();
+            }
+        }
 
-    private ByteBuffer getKey(final int position) throws IOException {
-        final int keyLengthOffset = getOffset(position);
+        void evict() {
+            evicted = true;
+            closeIfIdle();
+        }
 
-        final ByteBuffer keySizeBuf = ByteBuffer.allocate(Integer.BYTES);
-        fileChannel.read(keySizeBuf, keyLengthOffset);
+        private void closeIfIdle() {
+            if (!holders.compareAndSet(0, -1)) {
+                return;
+            }
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                logger.warn("The error was happened when the file channel was closed", e);
+            }
+        }
+
+        private ByteBuffer readFully(final long position, final int size) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(size);
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of SSTable file");
+                }
+            }
+            return buffer.flip();
+        }
 
-        final ByteBuffer keyBuf = ByteBuffer.allocate(keySizeBuf.flip().getInt());
-        fileChannel.read(keyBuf, keyLengthOffset + Integer.BYTES);
+        private ByteBuffer verified(final int index, @NotNull final ByteBuffer stored) throws IOException {
+            if (verifyChecksums) {
+                final CRC32C crc = new CRC32C();
+                crc.update(stored.duplicate());
+                if ((int) crc.getValue() != blockChecksums[index]) {
+                    throw new IOException("Checksum mismatch of block " + index + " in " + file.getName());
+                }
+            }
+            return stored;
+        }
 
-        return keyBuf.flip();
+        private ByteBuffer mappedBlock(final int index) {
+            final int segment = blockSegments[index];
+            final int offset = (int) (blockOffsets[index] - segmentOffsets[segment]);
+            return segments[segment].duplicate().position(offset).limit(offset + blockSizes[index]).slice();
+        }
     }
 
-    private int getElementPosition(final ByteBuffer key) throws IOException {
-        int left = 0;
-        int right = amountOfElements - 1;
-        while (left <= right) {
-            final int mid = (left + right)/ 2;
-            final ByteBuffer midKey = getKey(mid);
-            final int compareResult = midKey.compareTo(key);
+    /**
+     * Walks data blocks one by one, keys are rebuilt incrementally by the block cursors.
+     */
+    class SSTableIter implements Iterator<Cell> {
 
-            if (compareResult < 0) {
-                left = mid + 1;
-            } else if (compareResult > 0) {
-                right = mid - 1;
-            } else {
-                return mid;
+        private final Reader index;
+        private int blockIndex;
+        private Block.Cursor cursor;
+
+        SSTableIter(@NotNull final Reader index,
+                    @NotNull final ByteBuffer from) throws IOException {
+            this.index = index;
+            if (index.blockIndex.size() == 0) {
+                return;
             }
+            blockIndex = index.blockIndex.find(from, 0);
+            cursor = getBlock(index, blockIndex).cursor(from);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (cursor == null) {
+                return false;
+            }
+            while (!cursor.hasNext()) {
+                if (blockIndex + 1 >= index.blockIndex.size()) {
+                    return false;
+                }
+                try {
+                    cursor = getBlock(index, ++blockIndex).cursor();
+                } catch (IOException e) {
+                    logger.warn("SStable's iterator cannot read the next block");
+                    throw new RuntimeException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("SSTable has no more elements");
+            }
+            return cursor.next();
         }
-        return left;
     }
 
     /**
-     * Cell(a row of file) structure.
-     * key size | key | timestamp | value size | value
-     * if value size is 0 than value is absent
+     * Walks data blocks backwards, every block is read backwards by its restart intervals.
      */
-    private Cell get(final int position) throws IOException {
-        int elementOffset = getOffset(position);
+    class DescendingSSTableIter implements Iterator<Cell> {
 
-        final ByteBuffer key = getKey(position);
+        private final Reader index;
+        private int blockIndex;
+        private Iterator<Cell> cursor;
 
-        elementOffset += Integer.BYTES  + key.remaining();
-        final ByteBuffer timestampBuf = ByteBuffer.allocate(Long.BYTES);
-        fileChannel.read(timestampBuf, elementOffset);
+        DescendingSSTableIter(@NotNull final Reader index,
+                              @Nullable final ByteBuffer before) throws IOException {
+            this.index = index;
+            if (index.blockIndex.size() == 0) {
+                return;
+            }
+            blockIndex = before == null ? index.blockIndex.size() - 1 : index.blockIndex.find(before, 0);
+            cursor = getBlock(index, blockIndex).descendingCursor(before);
+        }
 
-        final ByteBuffer valueSizeBuf = ByteBuffer.allocate(Integer.BYTES);
-        fileChannel.read(valueSizeBuf, elementOffset + Long.BYTES);
-        final int valueSize = valueSizeBuf.flip().getInt();
+        @Override
+        public boolean hasNext() {
+            if (cursor == null) {
+                return false;
+            }
+            while (!cursor.hasNext()) {
+                if (blockIndex == 0) {
+                    return false;
+                }
+                try {
+                    cursor = getBlock(index, --blockIndex).descendingCursor(null);
+                } catch (IOException e) {
+                    logger.warn("SStable's descending iterator cannot read the previous block");
+                    throw new RuntimeException(e);
+                }
+            }
+            return true;
+        }
 
-        final Value value;
-        if (valueSize == TOMBSTONE_FLAG) {
-            value = Value.newTombstoneValue(timestampBuf.flip().getLong());
-        } else {
-            final ByteBuffer valueBuf = ByteBuffer.allocate(valueSize);
-            fileChannel.read(valueBuf, elementOffset + Long.BYTES + Integer.BYTES);
-            valueBuf.flip();
-            value = new Value(timestampBuf.flip().getLong(), valueBuf);
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("SSTable has no more elements");
+            }
+            return cursor.next();
         }
-        return new Cell(key, value);
     }
 
-    class SSTableIter implements Iterator<Cell> {
+    /**
+     * Iterator over file mappings which retains the loaded table until the iterator is exhausted.
+     * The table of an abandoned iterator is released once the iterator is garbage collected.
+     */
+    private static final class MappedIter implements Iterator<Cell> {
 
-        private int position;
+        private final Iterator<Cell> iterator;
+        private final Cleaner.Cleanable release;
 
-        public SSTableIter(final ByteBuffer from) {
-            try {
-                position = getElementPosition(from.rewind());
-            } catch (IOException e) {
-                logger.warn("SSTable's iterator cannot correctly get 'from' position", e);
-            }
+        MappedIter(@NotNull final Iterator<Cell> iterator,
+                   @NotNull final Reader index) {
+            this.iterator = iterator;
+            // the action must not refer to the iterator, otherwise it is never collected
+            this.release = CLEANER.register(this, index::release);
         }
 
         @Override
         public boolean hasNext() {
-            return position < amountOfElements;
+            if (iterator.hasNext()) {
+                return true;
+            }
+            release.clean();
+            return false;
         }
 
         @Override
         public Cell next() {
-            try {
-                return get(position++);
-            } catch (IOException e) {
-                logger.warn("SStable's iterator cannot get a cell because it has no more elements");
-                throw new RuntimeException(e);
+            if (!hasNext()) {
+                throw new NoSuchElementException("SSTable has no more elements");
             }
+            return iterator.next();
         }
     }
 
-    @Override
-    public void close() {
+    /**
+     * Adds a reference to the table, every version of the set of tables containing it holds one.
+     */
+    public void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Drops a reference to the table. The table is closed once the last reference is dropped,
+     * the file is deleted too if the table is obsolete.
+     */
+    public void release() {
+        final int remaining = refs.decrementAndGet();
+        assert remaining >= 0;
+        if (remaining > 0) {
+            return;
+        }
+        final Runnable onDeleted = onObsoleteDeleted;
+        close();
+        if (onDeleted == null) {
+            return;
+        }
+        deleteFile();
+        onDeleted.run();
+    }
+
+    /**
+     * Closes and deletes the table which has never been used, e.g. the output of a failed compaction.
+     */
+    public void delete() {
+        close();
+        deleteFile();
+    }
+
+    private void deleteFile() {
         try {
-            fileChannel.close();
+            Files.delete(file.toPath());
         } catch (IOException e) {
-            logger.warn("The error was happened when the file channel was closed", e);
+            logger.warn("Unable to delete file: " + file.getName(), e);
+        }
+        if (valueLog != null) {
+            valueLog.release(valueLogSegments, valueLogBytes);
+        }
+    }
+
+    /**
+     * Marks the table replaced by compaction, its file is deleted once the table is released.
+     *
+     * @param onDeleted - called after the file is deleted
+     */
+    public void markObsolete(@NotNull final Runnable onDeleted) {
+        this.onObsoleteDeleted = onDeleted;
+    }
+
+    /**
+     * File mappings are released by the garbage collector once iterators and values read before are collected.
+     */
+    @Override
+    public void close() {
+        final Reader current;
+        synchronized (this) {
+            closed = true;
+            current = reader;
+            reader = null;
+        }
+        tableCache.remove(this);
+        if (current != null) {
+            current.evict();
         }
+        blockCache.invalidate(id, blocksCount);
     }
 }
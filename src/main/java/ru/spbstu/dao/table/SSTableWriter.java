@@ -0,0 +1,326 @@
+package ru.spbstu.dao.table;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.RangeTombstones;
+import ru.spbstu.dao.Value;
+import ru.spbstu.dao.vlog.ValueLog;
+import ru.spbstu.dao.vlog.ValuePointer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes an SSTable in the format read by {@link SSTable}.
+ * Blocks are encoded into a large direct buffer, a full buffer is handed to the write stage
+ * and encoding goes on into the second buffer, so a writer has at most one write in flight.
+ * Buffers are pooled and reused by the next writers.
+ * Values of {@link DAOConfig#valueSeparationThreshold} bytes and larger are appended to the value log
+ * and the table stores pointers to them.
+ */
+final class SSTableWriter implements Closeable {
+
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    private static final ExecutorService WRITE_STAGE = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("sstable-writer-%d")
+                    .setDaemon(true)
+                    .build());
+
+    @NotNull
+    private final FileChannel fileChannel;
+    @NotNull
+    private final DAOConfig config;
+    @NotNull
+    private final Codec codec;
+    @NotNull
+    private final BlockBuilder block;
+    @Nullable
+    private final ValueLog valueLog;
+    private final Map<Integer, Long> referencedBytes = new TreeMap<>();
+    private boolean isValueLogAppended;
+    private final CRC32C crc = new CRC32C();
+
+    private ByteBuffer current;
+    private ByteBuffer spare;
+    private Future<?> pendingWrite;
+
+    private final List<ByteBuffer> blockKeys = new ArrayList<>();
+    private long[] blockOffsets = new long[64];
+    private int[] blockSizes = new int[64];
+    private int[] rawBlockSizes = new int[64];
+    private int[] blockChecksums = new int[64];
+    private long[] keyHashes = new long[1024];
+    private int amountOfElements;
+    private long offset;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private ByteBuffer lastKey = ByteBuffer.allocate(0);
+
+    SSTableWriter(@NotNull final File file,
+                  @NotNull final DAOConfig config,
+                  @Nullable final ValueLog valueLog) throws IOException {
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        this.config = config;
+        this.valueLog = valueLog;
+        this.codec = config.compression.getCodec();
+        this.block = new BlockBuilder(config.blockSize, config.blockRestartInterval);
+        this.current = takeBuffer(config.writeBufferSize);
+        this.spare = takeBuffer(config.writeBufferSize);
+    }
+
+    /**
+     * Adds the cell, cells must be added in ascending order of keys.
+     */
+    void add(@NotNull final Cell cell) throws IOException {
+        final ByteBuffer key = cell.getKey();
+        final Value value = separated(key, cell.getValue());
+        if (!block.isEmpty() && block.sizeWith(BlockBuilder.cellSize(key, value)) > config.blockSize) {
+            writeBlock();
+        }
+        if (block.isEmpty()) {
+            blockKeys.add(key);
+        }
+        block.add(key, value);
+        lastKey = key;
+        if (amountOfElements == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[amountOfElements++] = BloomFilter.hash(key);
+        minTimestamp = Math.min(minTimestamp, value.getTimestamp());
+        maxTimestamp = Math.max(maxTimestamp, value.getTimestamp());
+    }
+
+    /**
+     * Moves the value into the value log if it is large enough and counts bytes the table refers to.
+     */
+    private Value separated(@NotNull final ByteBuffer key,
+                            @NotNull final Value value) throws IOException {
+        Value result = value;
+        if (valueLog != null && !value.isTombstone() && !value.isSeparated()) {
+            final ByteBuffer data = value.getData();
+            if (data.remaining() >= config.valueSeparationThreshold) {
+                final ValuePointer pointer = valueLog.append(key, value.getTimestamp(), data);
+                result = Value.newSeparatedValue(value.getTimestamp(), pointer);
+                isValueLogAppended = true;
+            }
+        }
+        final ValuePointer pointer = result.getPointer();
+        if (pointer != null) {
+            referencedBytes.merge(pointer.getSegment(),
+                    (long) ValueLog.entrySize(key.remaining(), pointer.getSize()), Long::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the last block and the metadata of the table and waits until everything is forced to disk.
+     */
+    void finish(@NotNull final RangeTombstones rangeTombstones,
+                final int level) throws IOException {
+        if (!block.isEmpty()) {
+            writeBlock();
+        }
+        final int blocksCount = blockKeys.size();
+        int indexSize = 0;
+        for (final ByteBuffer key : blockKeys) {
+            indexSize += Integer.BYTES + key.remaining() + Long.BYTES + Integer.BYTES * 3;
+        }
+        indexSize += Integer.BYTES + lastKey.remaining();
+        int rangeTombstonesSize = 0;
+        for (final RangeTombstone tombstone : rangeTombstones.asList()) {
+            rangeTombstonesSize += Integer.BYTES * 2 + tombstone.getFrom().remaining()
+                    + tombstone.getTo().remaining() + Long.BYTES;
+            minTimestamp = Math.min(minTimestamp, tombstone.getTimestamp());
+            maxTimestamp = Math.max(maxTimestamp, tombstone.getTimestamp());
+        }
+        final BloomFilter bloomFilter = BloomFilter.create(amountOfElements, config.bloomFilterFpp);
+        for (int i = 0; i < amountOfElements; i++) {
+            bloomFilter.put(keyHashes[i]);
+        }
+
+        if (isValueLogAppended) {
+            // the table must not be visible before the values it points to are durable
+            valueLog.sync();
+        }
+
+        final int bloomFilterSize = bloomFilter.getWords() * Long.BYTES;
+        final int valueLogSegmentsSize = referencedBytes.size() * (Integer.BYTES + Long.BYTES);
+        final ByteBuffer metaBuf = ByteBuffer.allocate(indexSize + bloomFilterSize + rangeTombstonesSize
+                + valueLogSegmentsSize + SSTable.FOOTER_SIZE);
+        for (int i = 0; i < blocksCount; i++) {
+            final ByteBuffer key = blockKeys.get(i);
+            metaBuf.putInt(key.remaining())
+                    .put(key.duplicate())
+                    .putLong(blockOffsets[i])
+                    .putInt(blockSizes[i])
+                    .putInt(rawBlockSizes[i])
+                    .putInt(blockChecksums[i]);
+        }
+        metaBuf.putInt(lastKey.remaining())
+                .put(lastKey.duplicate());
+        bloomFilter.writeTo(metaBuf);
+        for (final RangeTombstone tombstone : rangeTombstones.asList()) {
+            final ByteBuffer from = tombstone.getFrom();
+            final ByteBuffer to = tombstone.getTo();
+            metaBuf.putInt(from.remaining())
+                    .put(from.duplicate())
+                    .putInt(to.remaining())
+                    .put(to.duplicate())
+                    .putLong(tombstone.getTimestamp());
+        }
+        for (final Map.Entry<Integer, Long> segment : referencedBytes.entrySet()) {
+            metaBuf.putInt(segment.getKey())
+                    .putLong(segment.getValue());
+        }
+        metaBuf.putLong(offset)
+                .putInt(indexSize)
+                .putInt(blocksCount)
+                .putInt(bloomFilter.getHashFunctions())
+                .putInt(bloomFilter.getWords())
+                .putInt(amountOfElements)
+                .putLong(minTimestamp)
+                .putLong(maxTimestamp)
+                .putInt(level)
+                .putInt(rangeTombstones.size())
+                .putInt(config.compression.getId())
+                .putInt(referencedBytes.size());
+        write(metaBuf.flip());
+        flushBuffer();
+        awaitPendingWrite();
+        // the table is renamed and recorded only after its content is durable
+        fileChannel.force(true);
+    }
+
+    private void writeBlock() throws IOException {
+        final ByteBuffer data = block.finish();
+        final int rawSize = data.remaining();
+        final ByteBuffer compressed = codec.compress(data);
+        final ByteBuffer stored = compressed.remaining() < rawSize ? compressed : data;
+        final int size = stored.remaining();
+        crc.reset();
+        crc.update(stored.duplicate());
+
+        final int index = blockKeys.size() - 1;
+        if (index == blockOffsets.length) {
+            final int length = blockOffsets.length * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, length);
+            blockSizes = Arrays.copyOf(blockSizes, length);
+            rawBlockSizes = Arrays.copyOf(rawBlockSizes, length);
+            blockChecksums = Arrays.copyOf(blockChecksums, length);
+        }
+        blockOffsets[index] = offset;
+        blockSizes[index] = size;
+        rawBlockSizes[index] = rawSize;
+        blockChecksums[index] = (int) crc.getValue();
+        write(stored);
+        block.reset();
+    }
+
+    /**
+     * Copies the data into the current buffer, buffers which are filled up are written in background.
+     */
+    private void write(@NotNull final ByteBuffer data) throws IOException {
+        offset += data.remaining();
+        while (data.hasRemaining()) {
+            if (!current.hasRemaining()) {
+                flushBuffer();
+            }
+            final int length = Math.min(current.remaining(), data.remaining());
+            current.put(data.duplicate().limit(data.position() + length));
+            data.position(data.position() + length);
+        }
+    }
+
+    /**
+     * Hands the current buffer to the write stage and switches to the spare one
+     * as soon as the previous write completes.
+     */
+    private void flushBuffer() throws IOException {
+        if (current.position() == 0) {
+            return;
+        }
+        awaitPendingWrite();
+        final ByteBuffer toWrite = current.flip();
+        pendingWrite = WRITE_STAGE.submit(() -> {
+            while (toWrite.hasRemaining()) {
+                fileChannel.write(toWrite);
+            }
+            return null;
+        });
+        current = spare.clear();
+        spare = toWrite;
+    }
+
+    private void awaitPendingWrite() throws IOException {
+        if (pendingWrite == null) {
+            return;
+        }
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing SSTable");
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot write SSTable", e.getCause());
+        } finally {
+            pendingWrite = null;
+        }
+    }
+
+    private static ByteBuffer takeBuffer(final int size) {
+        final ByteBuffer pooled = BUFFER_POOL.poll();
+        if (pooled != null && pooled.capacity() == size) {
+            return pooled.clear();
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private static void releaseBuffer(@NotNull final ByteBuffer buffer) {
+        if (BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+
+    /**
+     * Waits for the write in flight and closes the file, the table is complete only if it is finished.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean isIdle = false;
+        try {
+            awaitPendingWrite();
+            isIdle = true;
+        } finally {
+            fileChannel.close();
+            // a buffer may still be written by the write stage if waiting was interrupted
+            if (isIdle) {
+                releaseBuffer(current);
+                releaseBuffer(spare);
+            }
+        }
+    }
+
+}
@@ -1,18 +1,65 @@
 package ru.spbstu.dao.table;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.spbstu.dao.Cell;
 import ru.spbstu.dao.Iters;
+import ru.spbstu.dao.RangeTombstones;
+import ru.spbstu.dao.Value;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 
 public interface Table {
 
     @NotNull
     Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
 
+    /**
+     * Returns cells with keys less than the given one in descending order of keys, all cells if it is null.
+     */
+    @NotNull
+    Iterator<Cell> descendingIterator(@Nullable ByteBuffer before) throws IOException;
+
+    /**
+     * Returns the value stored exactly by the key or null if the table doesn't contain it.
+     */
+    @Nullable
+    Value get(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Looks up the keys sorted in ascending order, the result holds their values in the same order,
+     * null for the keys the table doesn't contain.
+     */
+    @NotNull
+    default Value[] getAll(@NotNull final List<ByteBuffer> sortedKeys) throws IOException {
+        final Value[] values = new Value[sortedKeys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(sortedKeys.get(i));
+        }
+        return values;
+    }
+
+    /**
+     * Returns false if the table definitely doesn't contain the key.
+     */
+    boolean mightContain(@NotNull ByteBuffer key);
+
+    /**
+     * Returns the key ranges deleted in the table, cells of the same table may be covered by them.
+     */
+    @NotNull
+    RangeTombstones getRangeTombstones();
+
+    /**
+     * Returns the timestamp of the range tombstone of the table covering the key, {@link Long#MIN_VALUE} if none does.
+     */
+    default long getDeletedAt(@NotNull final ByteBuffer key) {
+        return getRangeTombstones().getTimestamp(key);
+    }
+
     void upsert(@NotNull ByteBuffer key, @NotNull ByteBuffer value) throws IOException;
 
     void remove(@NotNull ByteBuffer key);
@@ -0,0 +1,99 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the amount of SSTables which keep their files open and their indexes in memory.
+ * Tables are opened on access and the least recently used ones are closed once there are too many of them,
+ * a closed table is reopened transparently by the next access.
+ * Recency is approximated by the CLOCK algorithm: an access only marks the table referenced,
+ * eviction gives referenced tables a second chance, so accesses take no lock.
+ * One instance is meant to be shared by all tables of the process like {@link BlockCache}.
+ */
+@ThreadSafe
+public final class TableCache {
+
+    private final int capacity;
+    private final Set<SSTable> open = new LinkedHashSet<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param capacity - maximum amount of open tables
+     */
+    public TableCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of table cache must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Registers the table which has just been opened and closes the tables which don't fit.
+     */
+    void opened(@NotNull final SSTable table) {
+        misses.incrementAndGet();
+        final List<SSTable> victims = new ArrayList<>();
+        synchronized (this) {
+            open.add(table);
+            while (open.size() > capacity) {
+                final Iterator<SSTable> eldest = open.iterator();
+                final SSTable candidate = eldest.next();
+                eldest.remove();
+                if (candidate.clearReferenced()) {
+                    open.add(candidate);
+                } else {
+                    victims.add(candidate);
+                }
+            }
+        }
+        // tables are closed outside of the lock since a table being opened holds its own lock
+        for (final SSTable victim : victims) {
+            victim.evict();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets the table which is closed for good.
+     */
+    synchronized void remove(@NotNull final SSTable table) {
+        open.remove(table);
+    }
+
+    /**
+     * Amount of accesses to tables which were open.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Amount of accesses which had to open the table.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getOpenTables() {
+        return open.size();
+    }
+
+}
@@ -0,0 +1,107 @@
+package ru.spbstu.dao.table;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Properties of an SSTable recorded in the manifest, they are known without opening the table.
+ */
+public final class TableMeta {
+
+    private final int generation;
+    private final int level;
+    private final long fileSize;
+    private final int amountOfElements;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    @NotNull
+    private final ByteBuffer firstKey;
+    @NotNull
+    private final ByteBuffer lastKey;
+    @NotNull
+    private final int[] valueLogSegments;
+    @NotNull
+    private final long[] valueLogBytes;
+
+    public TableMeta(final int generation,
+                     final int level,
+                     final long fileSize,
+                     final int amountOfElements,
+                     final long minTimestamp,
+                     final long maxTimestamp,
+                     @NotNull final ByteBuffer firstKey,
+                     @NotNull final ByteBuffer lastKey,
+                     @NotNull final int[] valueLogSegments,
+                     @NotNull final long[] valueLogBytes) {
+        this.generation = generation;
+        this.level = level;
+        this.fileSize = fileSize;
+        this.amountOfElements = amountOfElements;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+        this.valueLogSegments = valueLogSegments;
+        this.valueLogBytes = valueLogBytes;
+    }
+
+    @NotNull
+    public static TableMeta of(final int generation,
+                               @NotNull final SSTable ssTable) {
+        return new TableMeta(generation, ssTable.getLevel(), ssTable.sizeInBytes(), ssTable.size(),
+                ssTable.getMinTimestamp(), ssTable.getMaxTimestamp(), ssTable.getFirstKey(), ssTable.getLastKey(),
+                ssTable.getValueLogSegments(), ssTable.getValueLogBytes());
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getAmountOfElements() {
+        return amountOfElements;
+    }
+
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    @NotNull
+    public ByteBuffer getFirstKey() {
+        return firstKey.duplicate();
+    }
+
+    @NotNull
+    public ByteBuffer getLastKey() {
+        return lastKey.duplicate();
+    }
+
+    /**
+     * Value log segments the table points into, the arrays are shared and must not be modified.
+     */
+    @NotNull
+    public int[] getValueLogSegments() {
+        return valueLogSegments;
+    }
+
+    /**
+     * Size of the entries the table points to in each of {@link #getValueLogSegments()}.
+     */
+    @NotNull
+    public long[] getValueLogBytes() {
+        return valueLogBytes;
+    }
+
+}
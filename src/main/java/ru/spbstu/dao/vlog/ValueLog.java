@@ -0,0 +1,367 @@
+package ru.spbstu.dao.vlog;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Append-only segments holding values moved out of SSTables, so compaction rewrites pointers instead of values.
+ * Segment structure is a sequence of entries:
+ * key size | value size | timestamp | key | value
+ * Values are appended to the head segment, the next head is started once it reaches the segment size.
+ * Every SSTable references the segments it points into with the amount of bytes it points to,
+ * bytes of a segment which are no longer referenced are garbage left by compaction.
+ * A collected segment is deleted once the last SSTable referencing it is deleted.
+ */
+@ThreadSafe
+public final class ValueLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValueLog.class);
+
+    public static final String FILE_POSTFIX = ".vlog";
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+
+    @NotNull
+    private final File storage;
+    private final long segmentSize;
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private int nextSegment;
+    private Segment head;
+
+    /**
+     * Opens the segments of the storage, values are appended to a new segment.
+     *
+     * @param storage     - directory with the storage files
+     * @param segmentSize - size of a segment in bytes after which the next one is started
+     */
+    public ValueLog(@NotNull final File storage,
+                    final long segmentSize) throws IOException {
+        this.storage = storage;
+        this.segmentSize = segmentSize;
+        try (Stream<Path> files = Files.list(storage.toPath())) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                final String fileName = file.getFileName().toString();
+                if (!Files.isRegularFile(file) || !fileName.endsWith(FILE_POSTFIX)) {
+                    continue;
+                }
+                try {
+                    final int id = Integer.parseInt(fileName.substring(0, fileName.indexOf(FILE_POSTFIX)));
+                    final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                    segments.put(id, new Segment(id, file.toFile(), channel, channel.size()));
+                    nextSegment = Math.max(nextSegment, id + 1);
+                } catch (NumberFormatException e) {
+                    logger.info("Unexpected name of value log file: " + fileName, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Size of the entry of the value in a segment.
+     */
+    public static int entrySize(final int keySize,
+                                final int valueSize) {
+        return HEADER_SIZE + keySize + valueSize;
+    }
+
+    /**
+     * Appends the value to the head segment. The value may be read by the returned pointer right away,
+     * it is durable only after {@link #sync()}.
+     */
+    @NotNull
+    public synchronized ValuePointer append(@NotNull final ByteBuffer key,
+                                            final long timestamp,
+                                            @NotNull final ByteBuffer value) throws IOException {
+        if (head == null || head.size >= segmentSize) {
+            roll();
+        }
+        final int keySize = key.remaining();
+        final int valueSize = value.remaining();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keySize)
+                .putInt(keySize)
+                .putInt(valueSize)
+                .putLong(timestamp)
+                .put(key.duplicate())
+                .flip();
+        final ByteBuffer[] entry = {header, value.duplicate()};
+        // an empty value leaves nothing in the second buffer, so the header is checked too
+        while (entry[0].hasRemaining() || entry[1].hasRemaining()) {
+            head.channel.write(entry);
+        }
+        final ValuePointer pointer = new ValuePointer(this, head.id, head.size + HEADER_SIZE + keySize, valueSize);
+        head.size += entrySize(keySize, valueSize);
+        return pointer;
+    }
+
+    /**
+     * Starts the next head segment, the previous one is never written again.
+     */
+    private void roll() throws IOException {
+        if (head != null) {
+            head.channel.force(false);
+        }
+        final int id = nextSegment++;
+        final File file = new File(storage, id + FILE_POSTFIX);
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        head = new Segment(id, file, channel, 0);
+        segments.put(id, head);
+    }
+
+    /**
+     * Persists all appended values, previous heads are persisted when they are replaced.
+     */
+    public void sync() throws IOException {
+        final Segment current;
+        synchronized (this) {
+            current = head;
+        }
+        if (current != null) {
+            current.channel.force(false);
+        }
+    }
+
+    @NotNull
+    ByteBuffer read(@NotNull final ValuePointer pointer) throws IOException {
+        final Segment segment = segments.get(pointer.getSegment());
+        if (segment == null) {
+            throw new IOException("Value log segment " + pointer.getSegment() + " doesn't exist");
+        }
+        return readFully(segment, pointer.getOffset(), pointer.getSize());
+    }
+
+    /**
+     * Reads the pointer written by {@link ValuePointer#writeTo(ByteBuffer)}.
+     */
+    @NotNull
+    public ValuePointer readPointer(@NotNull final ByteBuffer buffer) {
+        final int segment = buffer.getInt();
+        final long offset = buffer.getLong();
+        final int size = buffer.getInt();
+        return new ValuePointer(this, segment, offset, size);
+    }
+
+    /**
+     * Adds the references of an SSTable to the segments it points into.
+     *
+     * @param ids   - segments the SSTable points into
+     * @param bytes - amount of bytes of the entries the SSTable points to in each of the segments
+     */
+    public void retain(@NotNull final int[] ids,
+                       @NotNull final long[] bytes) {
+        for (int i = 0; i < ids.length; i++) {
+            final Segment segment = segments.get(ids[i]);
+            if (segment == null) {
+                logger.warn("SSTable points into missing value log segment {}", ids[i]);
+                continue;
+            }
+            segment.retain(bytes[i]);
+        }
+    }
+
+    /**
+     * Drops the references of a deleted SSTable, collected segments are deleted with the last reference.
+     */
+    public void release(@NotNull final int[] ids,
+                        @NotNull final long[] bytes) {
+        for (int i = 0; i < ids.length; i++) {
+            final Segment segment = segments.get(ids[i]);
+            if (segment != null && segment.release(bytes[i])) {
+                delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Returns the segment with the largest share of garbage if the share is at least the given one, -1 otherwise.
+     * The head is never picked since it is still written.
+     */
+    public synchronized int pickForCollection(final double minGarbageRatio) {
+        int picked = -1;
+        double maxGarbageRatio = minGarbageRatio;
+        for (final Segment segment : segments.values()) {
+            if (segment == head || segment.size == 0 || segment.isObsolete()) {
+                continue;
+            }
+            final double garbageRatio = 1.0 - (double) segment.getLiveBytes() / segment.size;
+            if (garbageRatio >= maxGarbageRatio) {
+                maxGarbageRatio = garbageRatio;
+                picked = segment.id;
+            }
+        }
+        return picked;
+    }
+
+    /**
+     * Passes all entries of the segment to the consumer, values are not read.
+     */
+    public void scan(final int id,
+                     @NotNull final EntryConsumer consumer) throws IOException {
+        final Segment segment = segments.get(id);
+        if (segment == null) {
+            return;
+        }
+        long position = 0;
+        while (position + HEADER_SIZE <= segment.size) {
+            final ByteBuffer header = readFully(segment, position, HEADER_SIZE);
+            final int keySize = header.getInt();
+            final int valueSize = header.getInt();
+            final long timestamp = header.getLong();
+            if (keySize < 0 || valueSize < 0 || position + entrySize(keySize, valueSize) > segment.size) {
+                logger.warn("Value log segment {} has a torn entry at {}", id, position);
+                return;
+            }
+            final ByteBuffer key = readFully(segment, position + HEADER_SIZE, keySize);
+            consumer.accept(key, timestamp, new ValuePointer(this, id, position + HEADER_SIZE + keySize, valueSize));
+            position += entrySize(keySize, valueSize);
+        }
+    }
+
+    /**
+     * Marks the segment collected, it is deleted once no SSTable references it.
+     */
+    public void markObsolete(final int id) {
+        final Segment segment = segments.get(id);
+        if (segment != null && segment.markObsolete()) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * Deletes segments no SSTable points into, they are left by writes interrupted by a crash.
+     * Must be called once the SSTables of the storage are opened and before anything is appended.
+     */
+    public void deleteUnreferenced() {
+        for (final Segment segment : segments.values()) {
+            if (segment != head && segment.getRefs() == 0) {
+                delete(segment);
+            }
+        }
+    }
+
+    public long sizeInBytes() {
+        long size = 0;
+        for (final Segment segment : segments.values()) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public int getSegmentsCount() {
+        return segments.size();
+    }
+
+    private void delete(@NotNull final Segment segment) {
+        segments.remove(segment.id);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file.toPath());
+            logger.debug("Value log segment {} is deleted", segment.id);
+        } catch (IOException e) {
+            logger.warn("Unable to delete value log segment: " + segment.file.getName(), e);
+        }
+    }
+
+    private static ByteBuffer readFully(@NotNull final Segment segment,
+                                        final long position,
+                                        final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (segment.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of value log segment " + segment.file.getName());
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Persists the head and closes all segments.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (head != null) {
+            head.channel.force(false);
+        }
+        for (final Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        void accept(@NotNull ByteBuffer key, long timestamp, @NotNull ValuePointer pointer) throws IOException;
+
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        @NotNull
+        private final File file;
+        @NotNull
+        private final FileChannel channel;
+        private volatile long size;
+        private int refs;
+        private long liveBytes;
+        private boolean obsolete;
+
+        Segment(final int id,
+                @NotNull final File file,
+                @NotNull final FileChannel channel,
+                final long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        synchronized void retain(final long bytes) {
+            refs++;
+            liveBytes += bytes;
+        }
+
+        /**
+         * @return true if the segment has to be deleted
+         */
+        synchronized boolean release(final long bytes) {
+            refs--;
+            liveBytes -= bytes;
+            return refs == 0 && obsolete;
+        }
+
+        /**
+         * @return true if the segment has to be deleted
+         */
+        synchronized boolean markObsolete() {
+            obsolete = true;
+            return refs == 0;
+        }
+
+        synchronized boolean isObsolete() {
+            return obsolete;
+        }
+
+        synchronized int getRefs() {
+            return refs;
+        }
+
+        synchronized long getLiveBytes() {
+            return liveBytes;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package ru.spbstu.dao.vlog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Location of a value moved into the value log, SSTables store it instead of the value.
+ * Pointer structure:
+ * segment | offset of the value in the segment | value size
+ */
+public final class ValuePointer {
+
+    public static final int BYTES = Integer.BYTES * 2 + Long.BYTES;
+
+    @NotNull
+    private final ValueLog log;
+    private final int segment;
+    private final long offset;
+    private final int size;
+
+    ValuePointer(@NotNull final ValueLog log,
+                 final int segment,
+                 final long offset,
+                 final int size) {
+        this.log = log;
+        this.segment = segment;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Reads the value from the value log.
+     */
+    @NotNull
+    public ByteBuffer read() throws IOException {
+        return log.read(this);
+    }
+
+    public void writeTo(@NotNull final ByteBuffer buffer) {
+        buffer.putInt(segment)
+                .putLong(offset)
+                .putInt(size);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ValuePointer)) {
+            return false;
+        }
+        final ValuePointer other = (ValuePointer) o;
+        return segment == other.segment && offset == other.offset && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Integer.hashCode(segment) + Long.hashCode(offset);
+    }
+
+}
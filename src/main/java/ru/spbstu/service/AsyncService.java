@@ -8,10 +8,16 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.spbstu.dao.DAO;
+import ru.spbstu.dao.WriteBatch;
 import ru.spbstu.service.topology.ServiceTopology;
 import ru.spbstu.service.topology.Topology;
+import ru.spbstu.service.util.Batches;
+import ru.spbstu.service.util.Bytes;
+import ru.spbstu.service.util.MultiGets;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.*;
 
 public class AsyncService extends HttpServer implements Service {
@@ -70,24 +76,62 @@ public class AsyncService extends HttpServer implements Service {
 
     /**
      * Return a range of pair key - value from start to end (if it exist).
+     * With reverse=true the records are returned from the end of the range.
      *
      * @param start   - from key
      * @param end     - to key
+     * @param reverse - true to return records in descending order of keys
+     * @param limit   - maximum amount of returned records
      */
     @Path("/v0/entities")
     @RequestMethod(Request.METHOD_GET)
     public void range(@Param(value = "start", required = true) final String start,
                       @Param(value = "end") final String end,
+                      @Param(value = "reverse") final String reverse,
+                      @Param(value = "limit") final String limit,
                       @NotNull final HttpSession session) {
-        if (isInvalidRangeParameters(start, end)) {
+        final long maxCount = parseLimitParameter(limit);
+        if (isInvalidRangeParameters(start, end) || maxCount < 0) {
             try {
                 sendEmptyIdResponse(session, "RANGE-GET");
             } catch (IOException e) {
-                log.error("Invalid parameters in RANGE-GET request, start={}, end={}", start, end, e);
+                log.error("Invalid parameters in RANGE-GET request, start={}, end={}, limit={}",
+                        start, end, limit, e);
             }
             return;
         }
-        helper.processRange(start, end, session);
+        helper.processRange(start, end, Boolean.parseBoolean(reverse), maxCount, session);
+    }
+
+    /**
+     * Delete all values with keys from start (inclusive) to end (exclusive) on every node of the cluster.
+     * Values:
+     * 1. 202 if the range is deleted on all nodes
+     * 2. 400 if start or end is empty or start is not less than end
+     * 3. 500 if some io error was happened
+     *
+     * @param start   - from key
+     * @param end     - to key
+     */
+    @Path("/v0/entities")
+    @RequestMethod(Request.METHOD_DELETE)
+    public void removeRange(@Param(value = "start", required = true) final String start,
+                            @Param(value = "end", required = true) final String end,
+                            final HttpSession session,
+                            final Request request) {
+        log.debug("{} request with mapping: /v0/entities with: start={}, end={}",
+                request.getMethodName(), start, end);
+        try {
+            if (isInvalidRangeParameters(start, end)
+                    || Bytes.wrapString(start).compareTo(Bytes.wrapString(end)) >= 0) {
+                sendEmptyIdResponse(session, "RANGE-DELETE");
+                return;
+            }
+            respond(session, helper.handleRangeDelete(start, end, request));
+        } catch (RejectedExecutionException | IOException e) {
+            log.error(ERROR_SENDING_RESPONSE, e);
+            sendServiceUnavailableResponse(session, e);
+        }
     }
 
     /**
@@ -167,6 +211,79 @@ public class AsyncService extends HttpServer implements Service {
                 replicas);
     }
 
+    /**
+     * Apply a batch of upserts and removals, the body format is described by {@link Batches}.
+     * Mutations sent to the same node are applied there atomically.
+     * Values:
+     * 1. 201 if every mutation is acknowledged by at least ack of its replicas
+     * 2. 400 if the body is malformed, some key is empty or replication factor is invalid
+     * 3. 504 if not enough replicas acknowledged some mutation
+     *
+     * @param replicas - replication factor
+     */
+    @Path("/v0/batch")
+    @RequestMethod(Request.METHOD_PUT)
+    public void batch(@Param(value = "replicas") final String replicas,
+                      final Request request,
+                      final HttpSession session) {
+        final ReplicasHolder replicasHolder = parseReplicasParameter(replicas);
+        log.debug("{} request with mapping: /v0/batch", request.getMethodName());
+        try {
+            if (isInvalidReplicationFactor(replicasHolder)) {
+                sendInvalidRFResponse(session, replicasHolder);
+                return;
+            }
+            final WriteBatch batch;
+            try {
+                batch = Batches.decode(request.getBody() == null ? Response.EMPTY : request.getBody());
+            } catch (IllegalArgumentException e) {
+                log.info("Malformed body of batch request", e);
+                session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+                return;
+            }
+            respond(session, helper.handleBatch(batch, request, replicasHolder));
+        } catch (RejectedExecutionException | IOException e) {
+            log.error(ERROR_SENDING_RESPONSE, e);
+            sendServiceUnavailableResponse(session, e);
+        }
+    }
+
+    /**
+     * Get values of many keys with a single request, the body formats are described by {@link MultiGets}.
+     * Values:
+     * 1. 200 OK with values of the found keys, removed and absent keys are omitted
+     * 2. 400 if the body is malformed, some key is empty or replication factor is invalid
+     * 3. 504 if not enough replicas answered for some key
+     *
+     * @param replicas - replication factor
+     */
+    @Path("/v0/multiget")
+    @RequestMethod(Request.METHOD_POST)
+    public void multiGet(@Param(value = "replicas") final String replicas,
+                         final Request request,
+                         final HttpSession session) {
+        final ReplicasHolder replicasHolder = parseReplicasParameter(replicas);
+        log.debug("{} request with mapping: /v0/multiget", request.getMethodName());
+        try {
+            if (isInvalidReplicationFactor(replicasHolder)) {
+                sendInvalidRFResponse(session, replicasHolder);
+                return;
+            }
+            final List<ByteBuffer> keys;
+            try {
+                keys = MultiGets.decodeKeys(request.getBody() == null ? Response.EMPTY : request.getBody());
+            } catch (IllegalArgumentException e) {
+                log.info("Malformed body of multi-get request", e);
+                session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+                return;
+            }
+            respond(session, helper.handleMultiGet(keys, request, replicasHolder));
+        } catch (RejectedExecutionException | IOException e) {
+            log.error(ERROR_SENDING_RESPONSE, e);
+            sendServiceUnavailableResponse(session, e);
+        }
+    }
+
     @Override
     public synchronized void stop() {
         super.stop();
@@ -275,6 +392,20 @@ public class AsyncService extends HttpServer implements Service {
         }
     }
 
+    /**
+     * Returns Long.MAX_VALUE if the limit is absent and -1 if it is not a non-negative number.
+     */
+    private static long parseLimitParameter(final String limit) {
+        if (limit == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Math.max(-1, Long.parseLong(limit));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private static boolean isInvalidRangeParameters(@NotNull final String start, final String end) {
         return start.isEmpty() || (end != null && end.isEmpty());
     }
@@ -10,10 +10,15 @@ import org.slf4j.LoggerFactory;
 import ru.spbstu.Record;
 import ru.spbstu.dao.DAO;
 import ru.spbstu.dao.DeletedValueException;
+import ru.spbstu.dao.Iters;
 import ru.spbstu.dao.Value;
+import ru.spbstu.dao.WriteBatch;
 import ru.spbstu.service.bodyhandlers.ChangeBodyHandler;
 import ru.spbstu.service.bodyhandlers.GetBodyHandler;
+import ru.spbstu.service.bodyhandlers.MultiGetBodyHandler;
 import ru.spbstu.service.topology.Topology;
+import ru.spbstu.service.util.Batches;
+import ru.spbstu.service.util.MultiGets;
 import ru.spbstu.service.util.Nets;
 
 import java.io.IOException;
@@ -168,6 +173,47 @@ class ServiceHelper {
         return handleChangeOrProxy(key, request, replicasHolder, () -> localDelete(key, id), this::resolveChange);
     }
 
+    private CompletableFuture<String> localRangeDelete(@NotNull final ByteBuffer from,
+                                                       @NotNull final ByteBuffer to,
+                                                       @NotNull final String start,
+                                                       @NotNull final String end) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                dao.removeRange(from, to);
+                log.debug("Range successfully deleted!");
+            } catch (IOException e) {
+                log.error("Internal error. Can't delete range [{}, {})", start, end, e);
+                throw new RuntimeException(IO_EXCEPTION_ON_LOCAL_MESSAGE, e);
+            }
+            return Response.ACCEPTED;
+        }, es);
+    }
+
+    /**
+     * Keys of the range are spread over the whole cluster, so the range is deleted on every node
+     * and the request succeeds only if all of them acknowledge it.
+     */
+    CompletableFuture<Response> handleRangeDelete(
+            @NotNull final String start,
+            @NotNull final String end,
+            @NotNull final Request request) {
+        final CompletableFuture<String> localResponse
+                = localRangeDelete(wrapString(start), wrapString(end), start, end);
+        if (request.getHeader(Nets.PROXY_REQUEST_HEADER) != null) {
+            return localResponse.thenApplyAsync(v -> Nets.getChangeResponse(request.getMethodName()), es);
+        }
+        final Set<String> nodesForResponse = new HashSet<>(Arrays.asList(topology.nodes()));
+        nodesForResponse.remove(topology.local());
+        final List<CompletableFuture<String>> responses = proxy(nodesForResponse,
+                request.getMethodName(),
+                ChangeBodyHandler.INSTANCE,
+                node -> Nets.rangeRequestBuilderFor(node, request.getParameter("start="), request.getParameter("end="))
+                        .DELETE()
+                        .build());
+        responses.add(localResponse);
+        return resolveChange(responses.size(), responses);
+    }
+
     private CompletableFuture<String> localUpsert(@NotNull final ByteBuffer key,
                                                   @NotNull final String id,
                                                   @NotNull final Request request) {
@@ -199,14 +245,166 @@ class ServiceHelper {
                 .thenApplyAsync(v -> new Response(v.iterator().next(), Response.EMPTY), es);
     }
 
+    private CompletableFuture<String> localWrite(@NotNull final WriteBatch batch) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                dao.write(batch);
+                log.debug("Batch of {} mutations successfully written!", batch.size());
+            } catch (IOException e) {
+                log.error("Internal error. Can't write batch of {} mutations", batch.size(), e);
+                throw new RuntimeException(IO_EXCEPTION_ON_LOCAL_MESSAGE, e);
+            }
+            return Response.CREATED;
+        }, es);
+    }
+
+    /**
+     * Every node gets a single batch with the mutations of the keys it replicates,
+     * the request succeeds if each mutation is acknowledged by at least ack of its replicas.
+     */
+    CompletableFuture<Response> handleBatch(
+            @NotNull final WriteBatch batch,
+            @NotNull final Request request,
+            @NotNull final ReplicasHolder replicasHolder) {
+        if (request.getHeader(Nets.PROXY_REQUEST_HEADER) != null) {
+            return localWrite(batch).thenApplyAsync(v -> new Response(Response.CREATED, Response.EMPTY), es);
+        }
+        final Map<String, WriteBatch> batchesForNodes = new HashMap<>();
+        final List<Set<String>> replicasOfMutations = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer key = batch.getKey(i);
+            final ByteBuffer value = batch.getValue(i);
+            final Set<String> nodes = topology.nodesForKey(key, replicasHolder.from);
+            for (final String node : nodes) {
+                final WriteBatch nodeBatch = batchesForNodes.computeIfAbsent(node, n -> new WriteBatch());
+                if (value == null) {
+                    nodeBatch.remove(key);
+                } else {
+                    nodeBatch.upsert(key, value);
+                }
+            }
+            replicasOfMutations.add(nodes);
+        }
+
+        final Map<String, CompletableFuture<Boolean>> acknowledgements = new HashMap<>();
+        batchesForNodes.forEach((node, nodeBatch) -> {
+            final CompletableFuture<String> response;
+            if (topology.isLocal(node)) {
+                response = localWrite(nodeBatch);
+            } else {
+                response = proxy(Collections.singleton(node), request.getMethodName(), ChangeBodyHandler.INSTANCE,
+                        n -> Nets.batchRequestBuilderFor(n)
+                                .PUT(HttpRequest.BodyPublishers.ofByteArray(Batches.encode(nodeBatch)))
+                                .build()).get(0);
+            }
+            acknowledgements.put(node, response.handle((v, t) -> t == null));
+        });
+        return CompletableFuture.allOf(acknowledgements.values().toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(v -> {
+                    for (final Set<String> replicas : replicasOfMutations) {
+                        final long acknowledged = replicas.stream()
+                                .filter(node -> acknowledgements.get(node).join())
+                                .count();
+                        if (acknowledged < replicasHolder.ack) {
+                            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+                        }
+                    }
+                    return new Response(Response.CREATED, Response.EMPTY);
+                }, es);
+    }
+
+    private CompletableFuture<Map<ByteBuffer, Value>> localGetAll(@NotNull final Collection<ByteBuffer> keys) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final Map<ByteBuffer, Value> values = dao.getAll(keys);
+                log.debug("Values of {} keys successfully got!", keys.size());
+                return values;
+            } catch (IOException e) {
+                log.error("Internal error. Can't get values of {} keys", keys.size(), e);
+                throw new RuntimeException(IO_EXCEPTION_ON_LOCAL_MESSAGE, e);
+            }
+        }, es);
+    }
+
+    /**
+     * Every node gets a single request with the keys it replicates. A key is resolved to the freshest value
+     * of its replicas, the request fails if some key is answered by less than ack of them.
+     * Removed and absent keys are omitted from the response.
+     */
+    CompletableFuture<Response> handleMultiGet(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final Request request,
+            @NotNull final ReplicasHolder replicasHolder) {
+        if (request.getHeader(Nets.PROXY_REQUEST_HEADER) != null) {
+            return localGetAll(keys).thenApplyAsync(values -> Response.ok(MultiGets.encodeValues(values)), es);
+        }
+        final Map<String, List<ByteBuffer>> keysForNodes = new HashMap<>();
+        final Map<ByteBuffer, Set<String>> replicasOfKeys = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            if (replicasOfKeys.containsKey(key)) {
+                continue;
+            }
+            final Set<String> nodes = topology.nodesForKey(key, replicasHolder.from);
+            for (final String node : nodes) {
+                keysForNodes.computeIfAbsent(node, n -> new ArrayList<>()).add(key);
+            }
+            replicasOfKeys.put(key, nodes);
+        }
+
+        final Map<String, CompletableFuture<Map<ByteBuffer, Value>>> responses = new HashMap<>();
+        keysForNodes.forEach((node, nodeKeys) -> {
+            final CompletableFuture<Map<ByteBuffer, Value>> response;
+            if (topology.isLocal(node)) {
+                response = localGetAll(nodeKeys);
+            } else {
+                response = proxy(Collections.singleton(node), request.getMethodName(), MultiGetBodyHandler.INSTANCE,
+                        n -> Nets.multiGetRequestBuilderFor(n)
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(MultiGets.encodeKeys(nodeKeys)))
+                                .build()).get(0);
+            }
+            responses.put(node, response.handle((v, t) -> t == null ? v : null));
+        });
+        return CompletableFuture.allOf(responses.values().toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(v -> {
+                    final Map<ByteBuffer, Value> resolved = new HashMap<>();
+                    for (final Map.Entry<ByteBuffer, Set<String>> replicas : replicasOfKeys.entrySet()) {
+                        final ByteBuffer key = replicas.getKey();
+                        int acknowledged = 0;
+                        Value freshest = null;
+                        for (final String node : replicas.getValue()) {
+                            final Map<ByteBuffer, Value> values = responses.get(node).join();
+                            if (values == null) {
+                                continue;
+                            }
+                            acknowledged++;
+                            final Value value = values.get(key);
+                            if (value != null && (freshest == null || value.getTimestamp() > freshest.getTimestamp())) {
+                                freshest = value;
+                            }
+                        }
+                        if (acknowledged < replicasHolder.ack) {
+                            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+                        }
+                        if (freshest != null && !freshest.isTombstone()) {
+                            resolved.put(key, freshest);
+                        }
+                    }
+                    return Response.ok(MultiGets.encodeValues(resolved));
+                }, es);
+    }
+
     public void processRange(@NotNull final String start,
                              final String end,
+                             final boolean reverse,
+                             final long limit,
                              @NotNull final HttpSession session) {
         final ByteBuffer fromKey = wrapString(start);
         final ByteBuffer endKey = end == null ? null : wrapString(end);
         try {
-            final Iterator<Record> iterator = dao.range(fromKey, endKey);
-            ((RecordsStreamingSession) session).setIterator(iterator);
+            final Iterator<Record> iterator = reverse
+                    ? dao.descendingRange(fromKey, endKey)
+                    : dao.range(fromKey, endKey);
+            ((RecordsStreamingSession) session).setIterator(Iters.limit(iterator, limit));
         } catch (IOException e) {
             log.error("Cannot create iterator for range request with start={}, end={}", start, end, e);
         }
@@ -0,0 +1,29 @@
+package ru.spbstu.service.bodyhandlers;
+
+import ru.spbstu.dao.Value;
+import ru.spbstu.service.util.MultiGets;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+public final class MultiGetBodyHandler implements HttpResponse.BodyHandler<Map<ByteBuffer, Value>> {
+
+    public static final MultiGetBodyHandler INSTANCE = new MultiGetBodyHandler();
+    private static final int OK = 200;
+
+    private MultiGetBodyHandler() {
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<Map<ByteBuffer, Value>> apply(final HttpResponse.ResponseInfo responseInfo) {
+        if (responseInfo.statusCode() != OK) {
+            throw new RejectedExecutionException("Cannot process multi-get response");
+        }
+        return HttpResponse.BodySubscribers.mapping(
+                HttpResponse.BodySubscribers.ofByteArray(),
+                MultiGets::decodeValues);
+    }
+
+}
@@ -0,0 +1,83 @@
+package ru.spbstu.service.util;
+
+import org.jetbrains.annotations.NotNull;
+import ru.spbstu.dao.WriteBatch;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Body of a batch request is a sequence of mutations:
+ * key size | key | value size | value
+ * sizes are big-endian ints, if value size is -1 than the key is removed.
+ */
+public final class Batches {
+
+    private static final int TOMBSTONE_FLAG = -1;
+
+    private Batches() {
+    }
+
+    /**
+     * Parse body of a batch request.
+     * @param body - body of the request
+     * @return batch with mutations in the order of the body
+     * @throws IllegalArgumentException if the body is malformed or some key is empty
+     */
+    public static WriteBatch decode(@NotNull final byte[] body) {
+        final ByteBuffer in = ByteBuffer.wrap(body);
+        final WriteBatch batch = new WriteBatch();
+        try {
+            while (in.hasRemaining()) {
+                final ByteBuffer key = read(in, in.getInt());
+                if (!key.hasRemaining()) {
+                    throw new IllegalArgumentException("Empty key in batch");
+                }
+                final int valueSize = in.getInt();
+                if (valueSize == TOMBSTONE_FLAG) {
+                    batch.remove(key);
+                } else {
+                    batch.upsert(key, read(in, valueSize));
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed batch", e);
+        }
+        return batch;
+    }
+
+    /**
+     * Serialize batch to body of a batch request.
+     * @param batch - batch of mutations
+     * @return body of the request
+     */
+    public static byte[] encode(@NotNull final WriteBatch batch) {
+        int size = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.getValue(i);
+            size += Integer.BYTES * 2 + batch.getKey(i).remaining() + (value == null ? 0 : value.remaining());
+        }
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer key = batch.getKey(i);
+            out.putInt(key.remaining()).put(key.duplicate());
+            final ByteBuffer value = batch.getValue(i);
+            if (value == null) {
+                out.putInt(TOMBSTONE_FLAG);
+            } else {
+                out.putInt(value.remaining()).put(value.duplicate());
+            }
+        }
+        return out.array();
+    }
+
+    private static ByteBuffer read(@NotNull final ByteBuffer in, final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size in batch");
+        }
+        final ByteBuffer result = in.slice().limit(size);
+        in.position(in.position() + size);
+        return result;
+    }
+
+}
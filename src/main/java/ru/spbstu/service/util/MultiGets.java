@@ -0,0 +1,128 @@
+package ru.spbstu.service.util;
+
+import org.jetbrains.annotations.NotNull;
+import ru.spbstu.dao.Value;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of a multi-get request is a sequence of keys:
+ * key size | key
+ * Body of a multi-get response is a sequence of found values:
+ * key size | key | timestamp | value size | value
+ * sizes are big-endian ints, if value size is -1 than the key is removed, keys without values are omitted.
+ */
+public final class MultiGets {
+
+    private static final int TOMBSTONE_FLAG = -1;
+
+    private MultiGets() {
+    }
+
+    /**
+     * Parse body of a multi-get request.
+     * @param body - body of the request
+     * @return keys in the order of the body
+     * @throws IllegalArgumentException if the body is malformed or some key is empty
+     */
+    public static List<ByteBuffer> decodeKeys(@NotNull final byte[] body) {
+        final ByteBuffer in = ByteBuffer.wrap(body);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try {
+            while (in.hasRemaining()) {
+                final ByteBuffer key = read(in, in.getInt());
+                if (!key.hasRemaining()) {
+                    throw new IllegalArgumentException("Empty key in multi-get");
+                }
+                keys.add(key);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed multi-get", e);
+        }
+        return keys;
+    }
+
+    /**
+     * Serialize keys to body of a multi-get request.
+     * @param keys - requested keys
+     * @return body of the request
+     */
+    public static byte[] encodeKeys(@NotNull final Collection<ByteBuffer> keys) {
+        int size = 0;
+        for (final ByteBuffer key : keys) {
+            size += Integer.BYTES + key.remaining();
+        }
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        for (final ByteBuffer key : keys) {
+            out.putInt(key.remaining()).put(key.duplicate());
+        }
+        return out.array();
+    }
+
+    /**
+     * Parse body of a multi-get response.
+     * @param body - body of the response
+     * @return values by their keys
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    public static Map<ByteBuffer, Value> decodeValues(@NotNull final byte[] body) {
+        final ByteBuffer in = ByteBuffer.wrap(body);
+        final Map<ByteBuffer, Value> values = new HashMap<>();
+        try {
+            while (in.hasRemaining()) {
+                final ByteBuffer key = read(in, in.getInt());
+                final long timestamp = in.getLong();
+                final int valueSize = in.getInt();
+                values.put(key, valueSize == TOMBSTONE_FLAG
+                        ? Value.newTombstoneValue(timestamp)
+                        : new Value(timestamp, read(in, valueSize)));
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed multi-get response", e);
+        }
+        return values;
+    }
+
+    /**
+     * Serialize values to body of a multi-get response.
+     * @param values - values by their keys
+     * @return body of the response
+     */
+    public static byte[] encodeValues(@NotNull final Map<ByteBuffer, Value> values) {
+        int size = 0;
+        for (final Map.Entry<ByteBuffer, Value> entry : values.entrySet()) {
+            final Value value = entry.getValue();
+            size += Integer.BYTES * 2 + Long.BYTES + entry.getKey().remaining()
+                    + (value.isTombstone() ? 0 : value.getData().remaining());
+        }
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        for (final Map.Entry<ByteBuffer, Value> entry : values.entrySet()) {
+            final ByteBuffer key = entry.getKey();
+            final Value value = entry.getValue();
+            out.putInt(key.remaining()).put(key.duplicate()).putLong(value.getTimestamp());
+            if (value.isTombstone()) {
+                out.putInt(TOMBSTONE_FLAG);
+            } else {
+                final ByteBuffer data = value.getData();
+                out.putInt(data.remaining()).put(data);
+            }
+        }
+        return out.array();
+    }
+
+    private static ByteBuffer read(@NotNull final ByteBuffer in, final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size in multi-get");
+        }
+        final ByteBuffer result = in.slice().limit(size);
+        in.position(in.position() + size);
+        return result;
+    }
+
+}
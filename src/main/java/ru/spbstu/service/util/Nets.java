@@ -65,16 +65,68 @@ public final class Nets {
     public static HttpRequest.Builder requestBuilderFor(@NotNull final String node,
                                                          @NotNull final String id) {
         try {
-            return HttpRequest.newBuilder()
-                    .uri(provideURI(node, id))
-                    .timeout(Duration.ofMillis(TIMEOUT).dividedBy(2))
-                    .header(PROXY_REQUEST_HEADER, node);
+            return builderFor(node, provideURI(node, id));
         } catch (URISyntaxException e) {
             log.error("Cannot construct URI on proxy request building on node {} with id: {}", node, id);
             throw new IllegalArgumentException("Failed to create URI", e);
         }
     }
 
+    /**
+     * Prepare builder of a range request for specialization.
+     * @param node - node identifier
+     * @param start - first key of the range as it was requested
+     * @param end - key after the range as it was requested
+     * @return request builder
+     */
+    public static HttpRequest.Builder rangeRequestBuilderFor(@NotNull final String node,
+                                                              @NotNull final String start,
+                                                              @NotNull final String end) {
+        try {
+            return builderFor(node, new URI(node + "/v0/entities?start=" + start + "&end=" + end));
+        } catch (URISyntaxException e) {
+            log.error("Cannot construct URI on proxy request building on node {} with range: [{}, {})",
+                    node, start, end);
+            throw new IllegalArgumentException("Failed to create URI", e);
+        }
+    }
+
+    /**
+     * Prepare builder of a batch request for specialization.
+     * @param node - node identifier
+     * @return request builder
+     */
+    public static HttpRequest.Builder batchRequestBuilderFor(@NotNull final String node) {
+        return pathRequestBuilderFor(node, "/v0/batch");
+    }
+
+    /**
+     * Prepare builder of a multi-get request for specialization.
+     * @param node - node identifier
+     * @return request builder
+     */
+    public static HttpRequest.Builder multiGetRequestBuilderFor(@NotNull final String node) {
+        return pathRequestBuilderFor(node, "/v0/multiget");
+    }
+
+    private static HttpRequest.Builder pathRequestBuilderFor(@NotNull final String node,
+                                                             @NotNull final String path) {
+        try {
+            return builderFor(node, new URI(node + path));
+        } catch (URISyntaxException e) {
+            log.error("Cannot construct URI on proxy request building on node {} with path: {}", node, path);
+            throw new IllegalArgumentException("Failed to create URI", e);
+        }
+    }
+
+    private static HttpRequest.Builder builderFor(@NotNull final String node,
+                                                  @NotNull final URI uri) {
+        return HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(Duration.ofMillis(TIMEOUT).dividedBy(2))
+                .header(PROXY_REQUEST_HEADER, node);
+    }
+
     private static URI provideURI(@NotNull final String node,
                                   @NotNull final String id) throws URISyntaxException {
         return new URI(node + "/v0/entity?id=" + id);
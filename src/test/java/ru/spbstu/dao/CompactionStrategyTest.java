@@ -0,0 +1,84 @@
+package ru.spbstu.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.dao.log.CommitLog;
+import ru.spbstu.dao.log.SyncPolicy;
+import ru.spbstu.dao.table.MemoryTable;
+import ru.spbstu.dao.table.MutableTable;
+import ru.spbstu.dao.table.SSTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactionStrategyTest {
+
+    private static final long TOMBSTONE_TIMESTAMP = 100;
+
+    @TempDir
+    File storage;
+
+    @Test
+    void tombstonesAreDroppedIfMemoryTableIsNewer() throws IOException {
+        assertTombstonesDropped(true, new MemoryTable(TOMBSTONE_TIMESTAMP + 1));
+    }
+
+    @Test
+    void tombstonesAreKeptIfMemoryTableMayHoldOlderWrites() throws IOException {
+        // a writer of the memory table took its timestamp before the tombstone was written
+        final MutableTable memTable = new MemoryTable(TOMBSTONE_TIMESTAMP + 1);
+        memTable.put(key("a"), new Value(TOMBSTONE_TIMESTAMP - 1, key("value")));
+
+        assertTombstonesDropped(false, memTable);
+    }
+
+    @Test
+    void tombstonesAreKeptIfMemoryTableIsNotNewerThanInputs() throws IOException {
+        assertTombstonesDropped(false, new MemoryTable(TOMBSTONE_TIMESTAMP));
+    }
+
+    private void assertTombstonesDropped(final boolean expected,
+                                         final MutableTable memTable) throws IOException {
+        final DAOConfig config = new DAOConfig();
+        final File file = new File(storage, "1.dat");
+        SSTable.serialize(file,
+                Collections.singletonList(new Cell(key("a"), Value.newTombstoneValue(TOMBSTONE_TIMESTAMP))).iterator(),
+                () -> RangeTombstones.EMPTY, config, null, 0);
+        final NavigableMap<Integer, SSTable> ssTables = new TreeMap<>();
+        ssTables.put(1, new SSTable(file, config));
+
+        try (CommitLog commitLog = new CommitLog(new File(storage, "0.wal"), SyncPolicy.PER_WRITE)) {
+            final TableSet snapshot = TableSet.provideTableSet(memTable, commitLog, ssTables, 2);
+            try {
+                assertEquals(expected, CompactionStrategy.canDropTombstones(snapshot, ssTables));
+                for (final CompactionStyle style : CompactionStyle.values()) {
+                    config.compactionStyle = style;
+                    assertEquals(expected, CompactionStrategy.of(config).major(snapshot).dropTombstones);
+                }
+            } finally {
+                snapshot.release();
+            }
+        }
+    }
+
+    private static void assertEquals(final boolean expected, final boolean actual) {
+        if (expected) {
+            assertTrue(actual);
+        } else {
+            assertFalse(actual);
+        }
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,82 @@
+package ru.spbstu.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MmapTest {
+
+    private static final int KEYS = 1000;
+
+    @TempDir
+    File storage;
+
+    @Test
+    void valuesAreReadOnlySlicesOfMappings() throws IOException {
+        write();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config())) {
+            final ByteBuffer value = dao.get(key(0));
+
+            assertTrue(value.isDirect());
+            assertThrows(ReadOnlyBufferException.class, () -> value.put(0, (byte) 0));
+        }
+    }
+
+    @Test
+    void valuesOutliveTablesReplacedByCompaction() throws IOException {
+        write();
+        final List<ByteBuffer> values = new ArrayList<>(KEYS);
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config())) {
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            while (records.hasNext()) {
+                values.add(records.next().getValue());
+            }
+            // the compaction deletes the file of the table the values were read from
+            dao.upsert(key(0), value(KEYS));
+            dao.compact();
+        }
+        System.gc();
+
+        assertEquals(KEYS, values.size());
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(value(i), values.get(i));
+        }
+    }
+
+    private void write() throws IOException {
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config())) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i));
+            }
+        }
+    }
+
+    private static DAOConfig config() {
+        final DAOConfig config = new DAOConfig();
+        config.mmap = true;
+        config.rowCacheSize = 0;
+        return config;
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("key%04d", index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(final int index) {
+        return ByteBuffer.wrap(("value" + index).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,75 @@
+package ru.spbstu.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+
+class RangeTest {
+
+    private static final List<String> KEYS = Arrays.asList("a", "b", "c", "d");
+
+    @TempDir
+    File storage;
+
+    @Test
+    void descendingRangeReturnsRecordsFromTheEnd() throws IOException {
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, new DAOConfig())) {
+            upsertKeys(dao);
+
+            assertIterableEquals(Arrays.asList("c", "b"), keys(dao.descendingRange(key("b"), key("d"))));
+            assertIterableEquals(Arrays.asList("d", "c", "b", "a"), keys(dao.descendingRange(key(""), null)));
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, new DAOConfig())) {
+            assertIterableEquals(Arrays.asList("c", "b"), keys(dao.descendingRange(key("b"), key("d"))));
+        }
+    }
+
+    @Test
+    void consumingKeysOfRecordsDoesNotChangeStoredKeys() throws IOException {
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, new DAOConfig())) {
+            upsertKeys(dao);
+
+            // keys are read the way the range endpoint streams them, moving the position of the buffer
+            assertIterableEquals(KEYS, keys(dao.iterator(key(""))));
+            assertIterableEquals(KEYS, keys(dao.iterator(key(""))));
+            assertIterableEquals(Arrays.asList("d", "c", "b", "a"), keys(dao.descendingRange(key(""), null)));
+            assertIterableEquals(KEYS, keys(dao.iterator(key(""))));
+            for (final String key : KEYS) {
+                assertEquals(key("value-" + key), dao.get(key(key)));
+            }
+        }
+    }
+
+    private static void upsertKeys(final LsmDAOImpl dao) throws IOException {
+        for (final String key : KEYS) {
+            dao.upsert(key(key), key("value-" + key));
+        }
+    }
+
+    /**
+     * Decodes the keys of the records, consuming their buffers.
+     */
+    private static List<String> keys(final Iterator<Record> iterator) {
+        final List<String> keys = new ArrayList<>();
+        iterator.forEachRemaining(record -> keys.add(StandardCharsets.UTF_8.decode(record.getKey()).toString()));
+        return keys;
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,147 @@
+package ru.spbstu.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeTombstonesTest {
+
+    @Test
+    void newerTombstoneSplitsOlderOne() {
+        final RangeTombstones tombstones = RangeTombstones.of(Arrays.asList(
+                tombstone("a", "z", 1),
+                tombstone("m", "n", 3)));
+
+        assertIterableEquals(Arrays.asList("[a, m)@1", "[m, n)@3", "[n, z)@1"), fragments(tombstones));
+    }
+
+    @Test
+    void olderTombstoneInsideNewerOneIsDropped() {
+        final RangeTombstones tombstones = RangeTombstones.of(Arrays.asList(
+                tombstone("a", "z", 5),
+                tombstone("c", "e", 1)));
+
+        assertIterableEquals(Collections.singletonList("[a, z)@5"), fragments(tombstones));
+    }
+
+    @Test
+    void overlappingTombstonesAreFragmented() {
+        final RangeTombstones tombstones = RangeTombstones.of(Arrays.asList(
+                tombstone("a", "e", 1),
+                tombstone("c", "g", 2),
+                tombstone("k", "m", 1)));
+
+        assertIterableEquals(Arrays.asList("[a, c)@1", "[c, g)@2", "[k, m)@1"), fragments(tombstones));
+    }
+
+    @Test
+    void adjacentTombstonesOfSameAgeAreCoalesced() {
+        final RangeTombstones tombstones = RangeTombstones.of(Arrays.asList(
+                tombstone("a", "c", 4),
+                tombstone("c", "e", 4)));
+
+        assertIterableEquals(Collections.singletonList("[a, e)@4"), fragments(tombstones));
+    }
+
+    @Test
+    void timestampIsOfNewestCoveringTombstone() {
+        final RangeTombstones tombstones = RangeTombstones.of(Arrays.asList(
+                tombstone("b", "f", 1),
+                tombstone("d", "h", 2)));
+
+        assertEquals(Long.MIN_VALUE, tombstones.getTimestamp(key("a")));
+        assertEquals(1, tombstones.getTimestamp(key("b")));
+        assertEquals(1, tombstones.getTimestamp(key("c")));
+        assertEquals(2, tombstones.getTimestamp(key("d")));
+        assertEquals(2, tombstones.getTimestamp(key("g")));
+        assertEquals(Long.MIN_VALUE, tombstones.getTimestamp(key("h")));
+    }
+
+    @Test
+    void clipLimitsFragmentsToRange() {
+        final RangeTombstones tombstones = RangeTombstones.of(Arrays.asList(
+                tombstone("a", "c", 1),
+                tombstone("e", "k", 2),
+                tombstone("m", "p", 3)));
+
+        assertIterableEquals(Arrays.asList("[b, c)@1", "[e, g)@2"),
+                fragments(tombstones.clip(key("b"), key("g"))));
+        assertIterableEquals(Arrays.asList("[f, k)@2", "[m, p)@3"),
+                fragments(tombstones.clip(key("f"), null)));
+        assertTrue(tombstones.clip(key("c"), key("e")).isEmpty());
+    }
+
+    @Test
+    void mergeFragmentsSetsTogether() {
+        final RangeTombstones older = RangeTombstones.of(Collections.singletonList(tombstone("a", "k", 1)));
+        final RangeTombstones newer = RangeTombstones.of(Collections.singletonList(tombstone("f", "p", 2)));
+
+        assertIterableEquals(Arrays.asList("[a, f)@1", "[f, p)@2"),
+                fragments(RangeTombstones.merge(Arrays.asList(older, newer))));
+    }
+
+    @Test
+    void incrementalFragmentsMatchFragmentingAtOnce() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final RangeTombstoneFragments incremental = new RangeTombstoneFragments();
+            final List<RangeTombstone> added = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final int from = random.nextInt(26);
+                final int to = from + 1 + random.nextInt(26 - from);
+                final RangeTombstone tombstone = new RangeTombstone(letter(from), letter(to), random.nextInt(5));
+                incremental.add(tombstone);
+                added.add(tombstone);
+
+                assertIterableEquals(fragments(RangeTombstones.of(added)), fragments(incremental.snapshot()));
+            }
+        }
+    }
+
+    @Test
+    void snapshotIsNotChangedByLaterTombstones() {
+        final RangeTombstoneFragments fragments = new RangeTombstoneFragments();
+        fragments.add(tombstone("a", "z", 1));
+        final RangeTombstones snapshot = fragments.snapshot();
+        fragments.add(tombstone("m", "n", 2));
+
+        assertIterableEquals(Collections.singletonList("[a, z)@1"), fragments(snapshot));
+    }
+
+    private static List<String> fragments(final RangeTombstones tombstones) {
+        return tombstones.asList().stream()
+                .map(fragment -> "[" + string(fragment.getFrom()) + ", " + string(fragment.getTo()) + ")@"
+                        + fragment.getTimestamp())
+                .collect(Collectors.toList());
+    }
+
+    private static RangeTombstone tombstone(final String from,
+                                            final String to,
+                                            final long timestamp) {
+        return new RangeTombstone(key(from), key(to), timestamp);
+    }
+
+    private static ByteBuffer letter(final int index) {
+        return key(String.valueOf((char) ('a' + index)));
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+}
@@ -0,0 +1,196 @@
+package ru.spbstu.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TombstonesTest {
+
+    @TempDir
+    File storage;
+
+    @Test
+    void removedKeyStaysRemovedAcrossFlushAndCompaction() throws IOException {
+        final DAOConfig config = config();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("a"), key("value"));
+            dao.upsert(key("b"), key("value"));
+        }
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.remove(key("a"));
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            assertEquals(2, tables());
+            assertRemoved(dao, "a");
+            assertIterableEquals(Arrays.asList("b"), keys(dao));
+
+            dao.compact();
+            assertRemoved(dao, "a");
+            assertIterableEquals(Arrays.asList("b"), keys(dao));
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            assertRemoved(dao, "a");
+            assertIterableEquals(Arrays.asList("b"), keys(dao));
+        }
+    }
+
+    @Test
+    void keyWrittenAfterRemovalIsNotShadowed() throws IOException {
+        final DAOConfig config = config();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("a"), key("old"));
+        }
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.remove(key("a"));
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("a"), key("new"));
+            assertEquals(key("new"), dao.get(key("a")));
+
+            dao.compact();
+            assertEquals(key("new"), dao.get(key("a")));
+        }
+    }
+
+    @Test
+    void rangeRemovalShadowsOlderWritesOnly() throws IOException {
+        final DAOConfig config = config();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            for (final String key : Arrays.asList("a", "b", "c", "d", "e")) {
+                dao.upsert(key(key), key("old"));
+            }
+        }
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.removeRange(key("b"), key("d"));
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("c"), key("new"));
+            assertEquals(2, tables());
+            assertRangeRemoved(dao);
+
+            dao.compact();
+            assertRangeRemoved(dao);
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            assertRangeRemoved(dao);
+        }
+    }
+
+    @Test
+    void rangeRemovalIsAppliedToDescendingIteration() throws IOException {
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config())) {
+            for (final String key : Arrays.asList("a", "b", "c", "d")) {
+                dao.upsert(key(key), key("value"));
+            }
+            dao.removeRange(key("b"), key("d"));
+
+            assertIterableEquals(Arrays.asList("d", "a"), keys(dao.descendingRange(key(""), null)));
+        }
+    }
+
+    @Test
+    void writeStalledByThrottlingIsNotResurrectedByCompaction() throws Exception {
+        final DAOConfig config = config();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("a"), key("old"));
+        }
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("b"), key("value"));
+        }
+
+        // two tables of level 0 slow every write down by a second until they are compacted
+        config.slowdownLevel0Tables = 1;
+        config.stopLevel0Tables = 3;
+        config.maxWriteDelayMicros = TimeUnit.SECONDS.toMicros(2);
+        config.bytesToFlush = 1024;
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            final Thread writer = new Thread(() -> {
+                try {
+                    dao.upsert(key("a"), key("new"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.start();
+            while (writer.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+
+            // while the writer is delayed, the key is removed and the tombstone is flushed
+            dao.compact();
+            dao.remove(key("a"));
+            dao.upsert(key("c"), ByteBuffer.allocate(2 * 1024));
+            writer.join();
+
+            // the write landed after the removal, compaction must not change what is read
+            assertEquals(key("new"), dao.get(key("a")));
+            dao.compact();
+            assertEquals(key("new"), dao.get(key("a")));
+        }
+    }
+
+    private static void assertRangeRemoved(final LsmDAOImpl dao) throws IOException {
+        assertRemoved(dao, "b");
+        assertEquals(key("new"), dao.get(key("c")));
+        // the end of the range is exclusive
+        assertEquals(key("old"), dao.get(key("d")));
+        assertIterableEquals(Arrays.asList("a", "c", "d", "e"), keys(dao));
+    }
+
+    private static void assertRemoved(final LsmDAOImpl dao,
+                                      final String key) {
+        assertThrows(NoSuchElementException.class, () -> dao.get(key(key)));
+    }
+
+    /**
+     * Writes are flushed on close, tables are compacted only on request.
+     */
+    private static DAOConfig config() {
+        final DAOConfig config = new DAOConfig();
+        config.level0CompactionTrigger = Integer.MAX_VALUE;
+        config.slowdownLevel0Tables = Integer.MAX_VALUE;
+        config.stopLevel0Tables = Integer.MAX_VALUE;
+        config.compactionPeriodMillis = Long.MAX_VALUE / 2;
+        return config;
+    }
+
+    private int tables() {
+        return storage.listFiles((dir, name) -> name.endsWith(".dat")).length;
+    }
+
+    private static List<String> keys(final LsmDAOImpl dao) throws IOException {
+        return keys(dao.iterator(key("")));
+    }
+
+    private static List<String> keys(final Iterator<Record> iterator) {
+        final List<String> keys = new ArrayList<>();
+        iterator.forEachRemaining(record -> keys.add(StandardCharsets.UTF_8.decode(record.getKey()).toString()));
+        return keys;
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
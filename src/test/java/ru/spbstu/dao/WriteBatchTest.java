@@ -0,0 +1,165 @@
+package ru.spbstu.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteBatchTest {
+
+    private static final int BATCH_KEYS = 10;
+
+    @TempDir
+    File storage;
+
+    @Test
+    void appliesUpsertsAndRemovals() throws IOException {
+        final DAOConfig config = new DAOConfig();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key("removed"), key("old"));
+            dao.write(new WriteBatch()
+                    .upsert(key("a"), key("first"))
+                    .remove(key("removed"))
+                    .upsert(key("b"), key("second")));
+
+            assertBatchApplied(dao);
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            assertBatchApplied(dao);
+        }
+    }
+
+    @Test
+    void lastMutationOfKeyWins() throws IOException {
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, new DAOConfig())) {
+            dao.write(new WriteBatch()
+                    .upsert(key("a"), key("first"))
+                    .upsert(key("a"), key("second"))
+                    .upsert(key("b"), key("value"))
+                    .remove(key("b")));
+
+            assertEquals(key("second"), dao.get(key("a")));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key("b")));
+        }
+    }
+
+    @Test
+    void emptyBatchChangesNothing() throws IOException {
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, new DAOConfig())) {
+            dao.upsert(key("a"), key("value"));
+            dao.write(new WriteBatch());
+
+            assertEquals(key("value"), dao.get(key("a")));
+        }
+    }
+
+    @Test
+    void readersSeeWholeBatchOrNothing() throws Exception {
+        final DAOConfig config = new DAOConfig();
+        config.bytesToFlush = 64 * 1024;
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.write(batch(0));
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                final List<Future<?>> readers = new ArrayList<>();
+                readers.add(executor.submit(() -> {
+                    while (writing.get()) {
+                        assertSingleVersion(dao.getAll(keys()).values());
+                    }
+                    return null;
+                }));
+                readers.add(executor.submit(() -> {
+                    while (writing.get()) {
+                        final List<Value> values = new ArrayList<>();
+                        final Iterator<Cell> cells = dao.cellIterator(key(""));
+                        cells.forEachRemaining(cell -> values.add(cell.getValue()));
+                        assertEquals(BATCH_KEYS, values.size());
+                        assertSingleVersion(values);
+                    }
+                    return null;
+                }));
+                final Future<?> writer = executor.submit(() -> {
+                    try {
+                        for (int version = 1; version <= 2000; version++) {
+                            dao.write(batch(version));
+                        }
+                    } finally {
+                        writing.set(false);
+                    }
+                    return null;
+                });
+                writer.get();
+                for (final Future<?> reader : readers) {
+                    reader.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            } finally {
+                executor.shutdownNow();
+            }
+
+            assertSingleVersion(dao.getAll(keys()).values());
+        }
+    }
+
+    private static void assertBatchApplied(final LsmDAOImpl dao) throws IOException {
+        assertEquals(key("first"), dao.get(key("a")));
+        assertEquals(key("second"), dao.get(key("b")));
+        assertThrows(NoSuchElementException.class, () -> dao.get(key("removed")));
+    }
+
+    private static void assertSingleVersion(final Iterable<Value> values) {
+        final Set<String> versions = new HashSet<>();
+        for (final Value value : values) {
+            versions.add(StandardCharsets.UTF_8.decode(value.getData()).toString());
+        }
+        assertEquals(1, versions.size(), "Values of different batches are seen together: " + versions);
+    }
+
+    /**
+     * Sets all keys of the batch to the version.
+     */
+    private static WriteBatch batch(final int version) {
+        final WriteBatch batch = new WriteBatch();
+        final ByteBuffer value = key("version" + version);
+        for (final ByteBuffer key : keys()) {
+            batch.upsert(key, value);
+        }
+        return batch;
+    }
+
+    private static List<ByteBuffer> keys() {
+        final List<ByteBuffer> keys = new ArrayList<>(BATCH_KEYS);
+        for (int i = 0; i < BATCH_KEYS; i++) {
+            keys.add(key("key" + i));
+        }
+        return keys;
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
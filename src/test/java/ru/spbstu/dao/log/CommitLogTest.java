@@ -0,0 +1,174 @@
+package ru.spbstu.dao.log;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.dao.Cell;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.LsmDAOImpl;
+import ru.spbstu.dao.RangeTombstone;
+import ru.spbstu.dao.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommitLogTest {
+
+    @TempDir
+    File storage;
+
+    @Test
+    void replaysMutationsAfterReopen() throws IOException {
+        final File file = new File(storage, "0.wal");
+        try (CommitLog log = new CommitLog(file, SyncPolicy.PER_WRITE)) {
+            log.commit(log.append(key("a"), new Value(1, key("first"))));
+            log.commit(log.append(key("b"), Value.newTombstoneValue(2)));
+            log.commit(log.appendRange(new RangeTombstone(key("c"), key("e"), 3)));
+            log.commit(log.appendAll(Arrays.asList(
+                    new Cell(key("x"), new Value(4, key("second"))),
+                    new Cell(key("y"), Value.newTombstoneValue(4)))));
+        }
+
+        assertIterableEquals(Arrays.asList("a@1=first", "b@2 removed", "[c, e)@3", "x@4=second", "y@4 removed"),
+                replay(file));
+    }
+
+    @Test
+    void periodicLogIsWrittenOnClose() throws IOException {
+        final File file = new File(storage, "0.wal");
+        try (CommitLog log = new CommitLog(file, SyncPolicy.PERIODIC)) {
+            log.commit(log.append(key("a"), new Value(1, key("value"))));
+        }
+
+        assertIterableEquals(Arrays.asList("a@1=value"), replay(file));
+    }
+
+    @Test
+    void stopsAtTornRecord() throws IOException {
+        final File file = new File(storage, "0.wal");
+        try (CommitLog log = new CommitLog(file, SyncPolicy.PER_WRITE)) {
+            log.commit(log.append(key("a"), new Value(1, key("first"))));
+            log.commit(log.appendAll(Arrays.asList(
+                    new Cell(key("x"), new Value(2, key("second"))),
+                    new Cell(key("y"), new Value(2, key("third"))))));
+        }
+        // a crash in the middle of the last write leaves a part of the batch
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        assertIterableEquals(Arrays.asList("a@1=first"), replay(file));
+    }
+
+    @Test
+    void reopenedStorageReplaysUnflushedWrites() throws IOException {
+        final DAOConfig config = new DAOConfig();
+        config.syncPolicy = SyncPolicy.PER_WRITE;
+        final File live = Files.createDirectory(new File(storage, "live").toPath()).toFile();
+        final File crashed = new File(storage, "crashed");
+        try (LsmDAOImpl dao = new LsmDAOImpl(live, config)) {
+            dao.upsert(key("a"), key("first"));
+            dao.upsert(key("b"), key("second"));
+            dao.upsert(key("c"), key("covered"));
+            dao.remove(key("a"));
+            dao.removeRange(key("c"), key("e"));
+            dao.upsert(key("d"), key("third"));
+            // the files as they are on disk if the process is killed right now
+            copyDirectory(live, crashed);
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(crashed, config)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key("a")));
+            assertEquals(key("second"), dao.get(key("b")));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key("c")));
+            assertEquals(key("third"), dao.get(key("d")));
+        }
+    }
+
+    @Test
+    void recordsAppendedBeforeSyncShareIt() throws IOException {
+        final File file = new File(storage, "0.wal");
+        try (CommitLog log = new CommitLog(file, SyncPolicy.PER_WRITE)) {
+            final long first = log.append(key("a"), new Value(1, key("first")));
+            final long second = log.append(key("b"), new Value(2, key("second")));
+            final long third = log.append(key("c"), new Value(3, key("third")));
+
+            log.commit(second);
+            log.commit(first);
+            log.commit(third);
+            assertEquals(1, log.getSyncs());
+        }
+    }
+
+    @Test
+    void concurrentWritersShareSyncs() throws Exception {
+        final int writers = 8;
+        final int writes = 200;
+        final File file = new File(storage, "0.wal");
+        try (CommitLog log = new CommitLog(file, SyncPolicy.PER_WRITE)) {
+            final ExecutorService executor = Executors.newFixedThreadPool(writers);
+            try {
+                final List<Future<?>> futures = new ArrayList<>(writers);
+                for (int writer = 0; writer < writers; writer++) {
+                    final String prefix = writer + "_";
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < writes; i++) {
+                            log.commit(log.append(key(prefix + i), new Value(i, key("value"))));
+                        }
+                        return null;
+                    }));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            // every write waits for its fsync, so writers arriving during one fsync share the next one
+            assertTrue(log.getSyncs() < writers * writes, "Syncs: " + log.getSyncs());
+        }
+        assertEquals(writers * writes, replay(file).size());
+    }
+
+    private static List<String> replay(final File file) throws IOException {
+        final List<String> mutations = new ArrayList<>();
+        CommitLog.replay(file,
+                (key, value) -> mutations.add(string(key) + "@" + value.getTimestamp()
+                        + (value.isTombstone() ? " removed" : "=" + string(value.getData()))),
+                tombstone -> mutations.add("[" + string(tombstone.getFrom()) + ", " + string(tombstone.getTo())
+                        + ")@" + tombstone.getTimestamp()));
+        return mutations;
+    }
+
+    private static void copyDirectory(final File from, final File to) throws IOException {
+        Files.createDirectories(to.toPath());
+        for (final File file : from.listFiles()) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath());
+        }
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+}
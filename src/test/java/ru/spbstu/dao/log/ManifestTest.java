@@ -0,0 +1,125 @@
+package ru.spbstu.dao.log;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.LsmDAOImpl;
+import ru.spbstu.dao.table.TableMeta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NavigableMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ManifestTest {
+
+    @TempDir
+    File storage;
+
+    @Test
+    void replaysRecordsAfterReopen() throws IOException {
+        try (Manifest manifest = Manifest.create(storage, Arrays.asList(meta(1, 100), meta(2, 200)))) {
+            manifest.apply(Arrays.asList(1, 2), Collections.singletonList(meta(3, 300)));
+            manifest.apply(Collections.emptyList(), Collections.singletonList(meta(4, 400)));
+        }
+
+        final NavigableMap<Integer, TableMeta> tables = Manifest.replay(storage);
+        assertIterableEquals(Arrays.asList(3, 4), tables.keySet());
+        final TableMeta table = tables.get(3);
+        assertEquals(300, table.getFileSize());
+        assertEquals(key("a"), table.getFirstKey());
+        assertEquals(key("z"), table.getLastKey());
+    }
+
+    @Test
+    void recreatedManifestKeepsLiveTablesOnly() throws IOException {
+        try (Manifest manifest = Manifest.create(storage, Collections.singletonList(meta(1, 100)))) {
+            manifest.apply(Collections.singletonList(1), Collections.singletonList(meta(2, 200)));
+        }
+        Manifest.create(storage, Manifest.replay(storage).values()).close();
+
+        assertIterableEquals(Collections.singletonList(2), Manifest.replay(storage).keySet());
+        assertEquals(0, storage.listFiles((dir, name) -> name.endsWith(".tmp")).length);
+    }
+
+    @Test
+    void ignoresTornRecord() throws IOException {
+        try (Manifest manifest = Manifest.create(storage, Collections.singletonList(meta(1, 100)))) {
+            manifest.apply(Collections.emptyList(), Collections.singletonList(meta(2, 200)));
+        }
+        try (Manifest manifest = Manifest.create(storage, Manifest.replay(storage).values())) {
+            manifest.apply(Collections.singletonList(1), Collections.singletonList(meta(3, 300)));
+        }
+        // a crash in the middle of the last append leaves a part of its record
+        try (RandomAccessFile raf = new RandomAccessFile(new File(storage, Manifest.FILE_NAME), "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        assertIterableEquals(Arrays.asList(1, 2), Manifest.replay(storage).keySet());
+    }
+
+    @Test
+    void ignoresCorruptedRecord() throws IOException {
+        try (Manifest manifest = Manifest.create(storage, Collections.singletonList(meta(1, 100)))) {
+            manifest.apply(Collections.emptyList(), Collections.singletonList(meta(2, 200)));
+        }
+        final File file = new File(storage, Manifest.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            final int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+
+        assertIterableEquals(Collections.singletonList(1), Manifest.replay(storage).keySet());
+    }
+
+    @Test
+    void refusesToOpenOverTruncatedTable() throws IOException {
+        final DAOConfig config = new DAOConfig();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            for (int i = 0; i < 100; i++) {
+                dao.upsert(key("key" + i), key("value" + i));
+            }
+        }
+        final TableMeta recorded = Manifest.replay(storage).firstEntry().getValue();
+        final File table = new File(storage, recorded.getGeneration() + ".dat");
+        assertEquals(recorded.getFileSize(), table.length());
+        // the table lost its tail while the manifest record of it survived
+        try (RandomAccessFile raf = new RandomAccessFile(table, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        assertThrows(IOException.class, () -> new LsmDAOImpl(storage, config));
+        assertIterableEquals(Collections.singletonList(recorded.getGeneration()),
+                Manifest.replay(storage).keySet());
+    }
+
+    @Test
+    void ignoresPartialHeader() throws IOException {
+        Manifest.create(storage, Collections.singletonList(meta(1, 100))).close();
+        Files.write(new File(storage, Manifest.FILE_NAME).toPath(), new byte[3], StandardOpenOption.APPEND);
+
+        assertIterableEquals(Collections.singletonList(1), Manifest.replay(storage).keySet());
+    }
+
+    private static TableMeta meta(final int generation, final long fileSize) {
+        return new TableMeta(generation, 0, fileSize, 10, generation, generation * 10L,
+                key("a"), key("z"), new int[]{generation}, new long[]{fileSize / 2});
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
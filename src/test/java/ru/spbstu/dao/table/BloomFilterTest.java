@@ -0,0 +1,63 @@
+package ru.spbstu.dao.table;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final int KEYS = 100_000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void containsEveryPutKey() {
+        final BloomFilter filter = filter();
+
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(key(i)));
+        }
+    }
+
+    @Test
+    void falsePositivesStayNearConfiguredProbability() {
+        final BloomFilter filter = filter();
+
+        int falsePositives = 0;
+        for (int i = KEYS; i < 2 * KEYS; i++) {
+            if (filter.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2 * FPP * KEYS, "False positives: " + falsePositives);
+    }
+
+    @Test
+    void readFilterMatchesWrittenOne() {
+        final BloomFilter filter = filter();
+        final ByteBuffer buffer = ByteBuffer.allocate(filter.getWords() * Long.BYTES);
+        filter.writeTo(buffer);
+        buffer.flip();
+
+        final BloomFilter read = BloomFilter.readFrom(buffer, filter.getWords(), filter.getHashFunctions());
+        for (int i = 0; i < 2 * KEYS; i++) {
+            assertEquals(filter.mightContain(key(i)), read.mightContain(key(i)));
+        }
+    }
+
+    private static BloomFilter filter() {
+        final BloomFilter filter = BloomFilter.create(KEYS, FPP);
+        for (int i = 0; i < KEYS; i++) {
+            filter.put(BloomFilter.hash(key(i)));
+        }
+        return filter;
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(("key" + index).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,108 @@
+package ru.spbstu.dao.vlog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.LsmDAOImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ValueLogTest {
+
+    private static final int KEYS = 100;
+
+    @TempDir
+    File storage;
+
+    @Test
+    void valuesStayReadableAfterSegmentsAreCollected() throws IOException {
+        final DAOConfig config = config();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, "first"));
+            }
+        }
+        final Set<String> written = segments();
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            // every other value of the first segments becomes garbage
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.upsert(key(i), value(i, "second"));
+            }
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            // live values of the collected segments are rewritten and shadow the pointers of the compacted table
+            dao.compact();
+            assertValues(dao);
+            // the collected segments are deleted once the compacted table pointing into them is replaced
+            dao.compact();
+            final Set<String> collected = new HashSet<>(written);
+            collected.removeAll(segments());
+            assertFalse(collected.isEmpty());
+            assertValues(dao);
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            assertValues(dao);
+        }
+    }
+
+    @Test
+    void emptyValuesAreSeparatedToo() throws IOException {
+        final DAOConfig config = config();
+        config.valueSeparationThreshold = 1;
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            dao.upsert(key(0), ByteBuffer.allocate(0));
+            dao.upsert(key(1), value(1, "first"));
+        }
+
+        try (LsmDAOImpl dao = new LsmDAOImpl(storage, config)) {
+            assertEquals(ByteBuffer.allocate(0), dao.get(key(0)));
+            assertEquals(value(1, "first"), dao.get(key(1)));
+        }
+    }
+
+    private static void assertValues(final LsmDAOImpl dao) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(value(i, i % 2 == 0 ? "second" : "first"), dao.get(key(i)));
+        }
+    }
+
+    /**
+     * Values are moved into small segments of the value log, tables are compacted only on request.
+     */
+    private static DAOConfig config() {
+        final DAOConfig config = new DAOConfig();
+        config.valueSeparationThreshold = 16;
+        config.valueLogSegmentSize = 1024;
+        config.valueLogGcRatio = 0.3;
+        config.level0CompactionTrigger = Integer.MAX_VALUE;
+        config.slowdownLevel0Tables = Integer.MAX_VALUE;
+        config.stopLevel0Tables = Integer.MAX_VALUE;
+        config.compactionPeriodMillis = Long.MAX_VALUE / 2;
+        return config;
+    }
+
+    private Set<String> segments() {
+        return new HashSet<>(Arrays.asList(storage.list((dir, name) -> name.endsWith(ValueLog.FILE_POSTFIX))));
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("key%04d", index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(final int index,
+                                    final String version) {
+        return ByteBuffer.wrap(String.format("%s value of key %04d", version, index).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,172 @@
+package ru.spbstu.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.LsmDAOImpl;
+import ru.spbstu.dao.Value;
+import ru.spbstu.dao.WriteBatch;
+import ru.spbstu.service.topology.ServiceTopology;
+import ru.spbstu.service.util.Batches;
+import ru.spbstu.service.util.MultiGets;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AsyncServiceTest {
+
+    @TempDir
+    File storage;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private LsmDAOImpl dao;
+    private Service service;
+    private String endpoint;
+
+    @BeforeEach
+    void start() throws IOException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        endpoint = "http://localhost:" + port;
+        dao = new LsmDAOImpl(storage, new DAOConfig());
+        service = new AsyncService(port, dao, 2, 64,
+                new ServiceTopology(Collections.singleton(endpoint), endpoint));
+        service.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+    }
+
+    @Test
+    void rangeDeleteRemovesKeysFromStartToEnd() throws Exception {
+        for (final String key : Arrays.asList("a", "b", "c", "d")) {
+            assertEquals(201, upsert(key, "value-" + key));
+        }
+
+        assertEquals(202, send(HttpRequest.newBuilder(uri("/v0/entities?start=b&end=d")).DELETE()).statusCode());
+
+        assertEquals(200, get("a").statusCode());
+        assertEquals(404, get("b").statusCode());
+        assertEquals(404, get("c").statusCode());
+        assertEquals(200, get("d").statusCode());
+        assertEquals("a\nvalue-ad\nvalue-d", range("start=a"));
+    }
+
+    @Test
+    void rangeDeleteRejectsEmptyRange() throws Exception {
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/v0/entities?start=d&end=b")).DELETE()).statusCode());
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/v0/entities?start=b&end=b")).DELETE()).statusCode());
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/v0/entities?start=&end=b")).DELETE()).statusCode());
+    }
+
+    @Test
+    void batchAppliesAllMutations() throws Exception {
+        assertEquals(201, upsert("removed", "old"));
+        final WriteBatch batch = new WriteBatch()
+                .upsert(key("a"), key("first"))
+                .remove(key("removed"))
+                .upsert(key("b"), key("second"));
+
+        final HttpResponse<byte[]> response = send(HttpRequest.newBuilder(uri("/v0/batch"))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(Batches.encode(batch))));
+
+        assertEquals(201, response.statusCode());
+        assertEquals("first", string(get("a").body()));
+        assertEquals("second", string(get("b").body()));
+        assertEquals(404, get("removed").statusCode());
+    }
+
+    @Test
+    void batchRejectsMalformedBody() throws Exception {
+        final HttpResponse<byte[]> response = send(HttpRequest.newBuilder(uri("/v0/batch"))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(new byte[]{0, 0, 0, 5, 'a'})));
+
+        assertEquals(400, response.statusCode());
+    }
+
+    @Test
+    void multiGetReturnsFoundValuesOnly() throws Exception {
+        assertEquals(201, upsert("a", "first"));
+        assertEquals(201, upsert("b", "second"));
+        assertEquals(201, upsert("removed", "old"));
+        assertEquals(202, send(HttpRequest.newBuilder(uri("/v0/entity?id=removed")).DELETE()).statusCode());
+
+        final HttpResponse<byte[]> response = send(HttpRequest.newBuilder(uri("/v0/multiget"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(MultiGets.encodeKeys(
+                        Arrays.asList(key("a"), key("b"), key("removed"), key("absent"))))));
+
+        assertEquals(200, response.statusCode());
+        final Map<ByteBuffer, Value> values = MultiGets.decodeValues(response.body());
+        assertEquals(2, values.size());
+        assertEquals(key("first"), values.get(key("a")).getData());
+        assertEquals(key("second"), values.get(key("b")).getData());
+    }
+
+    @Test
+    void rangeIsReturnedInReverseAndLimited() throws Exception {
+        for (final String key : Arrays.asList("a", "b", "c", "d")) {
+            assertEquals(201, upsert(key, "value-" + key));
+        }
+
+        assertEquals("a\nvalue-ab\nvalue-bc\nvalue-c", range("start=a&end=d"));
+        assertEquals("c\nvalue-cb\nvalue-ba\nvalue-a", range("start=a&end=d&reverse=true"));
+        assertEquals("a\nvalue-ab\nvalue-b", range("start=a&limit=2"));
+        assertEquals("d\nvalue-dc\nvalue-c", range("start=a&reverse=true&limit=2"));
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/v0/entities?start=a&limit=-1")).GET()).statusCode());
+    }
+
+    private int upsert(final String id,
+                       final String value) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(uri("/v0/entity?id=" + id))
+                .PUT(HttpRequest.BodyPublishers.ofString(value))).statusCode();
+    }
+
+    private HttpResponse<byte[]> get(final String id) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(uri("/v0/entity?id=" + id)).GET());
+    }
+
+    /**
+     * Returns the records of the range as they are streamed, every record is its key and value split by '\n'.
+     */
+    private String range(final String parameters) throws IOException, InterruptedException {
+        final HttpResponse<byte[]> response = send(HttpRequest.newBuilder(uri("/v0/entities?" + parameters)).GET());
+        assertEquals(200, response.statusCode());
+        return string(response.body());
+    }
+
+    private HttpResponse<byte[]> send(final HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(final String path) {
+        return URI.create(endpoint + path);
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(final byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
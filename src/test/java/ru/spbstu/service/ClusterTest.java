@@ -0,0 +1,182 @@
+package ru.spbstu.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spbstu.dao.DAOConfig;
+import ru.spbstu.dao.LsmDAOImpl;
+import ru.spbstu.dao.Value;
+import ru.spbstu.dao.WriteBatch;
+import ru.spbstu.service.topology.ServiceTopology;
+import ru.spbstu.service.topology.Topology;
+import ru.spbstu.service.util.Batches;
+import ru.spbstu.service.util.MultiGets;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Requests sent to the first node of a cluster of three, every node has its own storage.
+ */
+class ClusterTest {
+
+    private static final int NODES = 3;
+    private static final int KEYS = 30;
+
+    @TempDir
+    File storage;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<String> endpoints = new ArrayList<>(NODES);
+    private final List<LsmDAOImpl> daos = new ArrayList<>(NODES);
+    private final List<Service> services = new ArrayList<>(NODES);
+    private Topology<String> topology;
+
+    @BeforeEach
+    void start() throws IOException {
+        for (int node = 0; node < NODES; node++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                endpoints.add("http://localhost:" + socket.getLocalPort());
+            }
+        }
+        final Set<String> nodes = new HashSet<>(endpoints);
+        topology = new ServiceTopology(nodes, endpoints.get(0));
+        for (int node = 0; node < NODES; node++) {
+            final File data = new File(storage, "node" + node);
+            Files.createDirectory(data.toPath());
+            final LsmDAOImpl dao = new LsmDAOImpl(data, new DAOConfig());
+            daos.add(dao);
+            final String endpoint = endpoints.get(node);
+            final Service service = new AsyncService(URI.create(endpoint).getPort(), dao, 2, 64,
+                    new ServiceTopology(nodes, endpoint));
+            service.start();
+            services.add(service);
+        }
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        for (final Service service : services) {
+            if (service != null) {
+                service.stop();
+            }
+        }
+        for (final LsmDAOImpl dao : daos) {
+            dao.close();
+        }
+    }
+
+    @Test
+    void batchIsAppliedOnReplicasOfItsKeysOnly() throws Exception {
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < KEYS; i++) {
+            batch.upsert(key(i), value(i));
+        }
+
+        assertEquals(201, batch(batch, "2/2").statusCode());
+
+        for (int i = 0; i < KEYS; i++) {
+            final Set<String> replicas = topology.nodesForKey(key(i), 2);
+            for (int node = 0; node < NODES; node++) {
+                final LsmDAOImpl dao = daos.get(node);
+                if (replicas.contains(endpoints.get(node))) {
+                    assertEquals(value(i), dao.get(key(i)));
+                } else {
+                    final ByteBuffer key = key(i);
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    void batchFailsIfReplicasDoNotAcknowledgeIt() throws Exception {
+        services.get(NODES - 1).stop();
+        services.set(NODES - 1, null);
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < KEYS; i++) {
+            batch.upsert(key(i), value(i));
+        }
+
+        assertEquals(504, batch(batch, "3/3").statusCode());
+        // the nodes which are up still apply their part of the batch
+        assertEquals(value(0), daos.get(0).get(key(0)));
+    }
+
+    @Test
+    void multiGetReturnsFreshestValueOfReplicas() throws Exception {
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < KEYS; i++) {
+            batch.upsert(key(i), value(i));
+        }
+        assertEquals(201, batch(batch, "3/3").statusCode());
+        // replicas diverge, the newer write of a single node wins
+        daos.get(1).upsert(key(0), value(KEYS));
+        daos.get(2).remove(key(1));
+
+        final HttpResponse<byte[]> response = multiGet(Arrays.asList(key(0), key(1), key(2), key(KEYS)), "3/3");
+
+        assertEquals(200, response.statusCode());
+        final Map<ByteBuffer, Value> values = MultiGets.decodeValues(response.body());
+        assertEquals(2, values.size());
+        assertEquals(value(KEYS), values.get(key(0)).getData());
+        assertEquals(value(2), values.get(key(2)).getData());
+    }
+
+    @Test
+    void multiGetFailsIfReplicasDoNotAnswer() throws Exception {
+        services.get(NODES - 1).stop();
+        services.set(NODES - 1, null);
+
+        assertEquals(504, multiGet(Arrays.asList(key(0), key(1)), "3/3").statusCode());
+        assertEquals(200, multiGet(Arrays.asList(key(0), key(1)), "1/3").statusCode());
+    }
+
+    private HttpResponse<byte[]> batch(final WriteBatch batch,
+                                       final String replicas) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(uri("/v0/batch?replicas=" + replicas))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(Batches.encode(batch))));
+    }
+
+    private HttpResponse<byte[]> multiGet(final List<ByteBuffer> keys,
+                                          final String replicas) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(uri("/v0/multiget?replicas=" + replicas))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(MultiGets.encodeKeys(keys))));
+    }
+
+    private HttpResponse<byte[]> send(final HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(final String path) {
+        return URI.create(endpoints.get(0) + path);
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(("key" + index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(final int index) {
+        return ByteBuffer.wrap(("value" + index).getBytes(StandardCharsets.UTF_8));
+    }
+
+}